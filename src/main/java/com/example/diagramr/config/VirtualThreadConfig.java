@@ -0,0 +1,36 @@
+package com.example.diagramr.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.web.client.RestClientCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.Executors;
+
+/**
+ * Active when spring.threads.virtual.enabled=true. Spring Boot then serves
+ * Tomcat requests on virtual threads; this configuration moves the LLM
+ * client's blocking HTTP calls onto the JDK HttpClient, which parks virtual
+ * threads instead of pinning their carriers. PlantUML rendering stays on the
+ * platform-thread RenderExecutor regardless of this mode.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+    @Bean
+    public RestClientCustomizer virtualThreadRestClientCustomizer() {
+        logger.info("Virtual-thread mode enabled: LLM HTTP calls use the JDK HttpClient on virtual threads");
+        HttpClient httpClient = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        return builder -> builder.requestFactory(new JdkClientHttpRequestFactory(httpClient));
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.diagramr.config;
+
+import com.example.diagramr.service.user.UserService;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    private final UserService userService;
+
+    public WebMvcConfig(UserService userService) {
+        this.userService = userService;
+    }
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new AuthenticatedUserArgumentResolver(userService));
+    }
+}
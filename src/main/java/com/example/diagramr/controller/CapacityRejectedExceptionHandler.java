@@ -0,0 +1,29 @@
+package com.example.diagramr.controller;
+
+import com.example.diagramr.exception.CapacityRejectedException;
+import com.example.diagramr.model.DiagramResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+@ControllerAdvice
+public class CapacityRejectedExceptionHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(CapacityRejectedExceptionHandler.class);
+
+    @ExceptionHandler(CapacityRejectedException.class)
+    public ResponseEntity<DiagramResponse> handleCapacityRejected(CapacityRejectedException e) {
+        long retryAfterSeconds = Math.max(1, e.getRetryAfter().toSeconds());
+        logger.warn("Shedding request with 429, retry after {}s: {}", retryAfterSeconds, e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(DiagramResponse.builder()
+                        .isValid(false)
+                        .errorMessage(e.getMessage())
+                        .build());
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.diagramr.controller;
+
+import com.example.diagramr.service.diagram.DiagramBatchRenderService;
+import com.example.diagramr.service.diagram.DiagramBatchRenderService.BatchItem;
+import jakarta.servlet.http.HttpServletResponse;
+import net.sourceforge.plantuml.FileFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Function;
+
+@Controller
+public class DiagramBatchRenderController {
+
+    private final DiagramBatchRenderService batchRenderService;
+    private static final Logger logger = LoggerFactory.getLogger(DiagramBatchRenderController.class);
+
+    public DiagramBatchRenderController(DiagramBatchRenderService batchRenderService) {
+        this.batchRenderService = batchRenderService;
+    }
+
+    @PostMapping(value = "/diagrams/render/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public void renderJsonBatch(@RequestBody String body,
+            @RequestParam(defaultValue = "svg") String format,
+            HttpServletResponse response) throws IOException {
+        renderBatch(body, format, batchRenderService::parseJson, response);
+    }
+
+    @PostMapping(value = "/diagrams/render/batch", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public void renderTextBatch(@RequestBody String body,
+            @RequestParam(defaultValue = "svg") String format,
+            HttpServletResponse response) throws IOException {
+        renderBatch(body, format, batchRenderService::parseBlocks, response);
+    }
+
+    /**
+     * Streams one NDJSON line per item as it finishes. Written on the
+     * request thread, like the ZIP export, so a long batch is not subject to
+     * the async request timeout.
+     */
+    private void renderBatch(String body, String format, Function<String, List<BatchItem>> parser,
+            HttpServletResponse response) throws IOException {
+        FileFormat fileFormat;
+        List<BatchItem> items;
+        try {
+            fileFormat = switch (format.trim().toLowerCase()) {
+                case "svg" -> FileFormat.SVG;
+                case "png" -> FileFormat.PNG;
+                default -> throw new IllegalArgumentException("Unsupported batch format: " + format);
+            };
+            items = parser.apply(body);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Rejected batch render request: {}", e.getMessage());
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+            return;
+        }
+
+        logger.debug("Rendering batch of {} sources as {}", items.size(), fileFormat);
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+        try {
+            batchRenderService.renderBatch(items, fileFormat, response.getOutputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Batch render of {} sources was interrupted", items.size());
+        } catch (IOException e) {
+            logger.info("Batch render stopped: {}", e.getMessage());
+        }
+    }
+}
@@ -3,29 +3,52 @@ package com.example.diagramr.controller;
 import com.example.diagramr.model.Diagram;
 import com.example.diagramr.model.DiagramRequest;
 import com.example.diagramr.model.DiagramResponse;
+import com.example.diagramr.model.DiagramStreamEvent;
+import com.example.diagramr.model.DiagramSummaryPage;
 import com.example.diagramr.model.User;
 import com.example.diagramr.model.DiagramVersion;
+import com.example.diagramr.model.DiagramVersionSummary;
 import com.example.diagramr.service.diagram.DiagramService;
+import com.example.diagramr.service.render.RenderFormat;
+import com.example.diagramr.service.render.SyntaxCheckResult;
+import com.example.diagramr.service.user.AuthenticatedUser;
 import com.example.diagramr.service.user.UserService;
 import com.example.diagramr.exception.PlantUmlRenderingException;
+import com.example.diagramr.exception.RenderRejectedException;
 
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import net.sourceforge.plantuml.FileFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Page;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import reactor.core.publisher.Flux;
 
-import java.util.List;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Optional;
 
 @Controller
@@ -34,10 +57,20 @@ public class DiagramController {
     private final DiagramService diagramService;
     private final UserService userService;
     private static final Logger logger = LoggerFactory.getLogger(DiagramController.class);
-
-    public DiagramController(DiagramService diagramService, UserService userService) {
+    private static final int LIST_PAGE_SIZE = 20;
+    private static final int MAX_LIST_PAGE_SIZE = 100;
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private static final MediaType SVG_MEDIA_TYPE = MediaType.valueOf("image/svg+xml");
+    private static final CacheControl CURRENT_IMAGE_CACHE_CONTROL = CacheControl.noCache().cachePrivate();
+    private final CacheControl immutableImageCacheControl;
+
+    public DiagramController(DiagramService diagramService, UserService userService,
+            @Value("${diagramr.images.shared-cache:false}") boolean sharedImageCache) {
         this.diagramService = diagramService;
         this.userService = userService;
+        // Version and hash-addressed images never change; version numbers are never reused
+        CacheControl immutable = CacheControl.maxAge(Duration.ofDays(365)).immutable();
+        this.immutableImageCacheControl = sharedImageCache ? immutable.cachePublic() : immutable.cachePrivate();
     }
 
     @GetMapping("/")
@@ -83,16 +116,29 @@ public class DiagramController {
     }
 
     @GetMapping("/diagrams")
-    public String listDiagrams(Model model, Authentication authentication) {
-        User user = userService.getUserByUsername(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
-        List<Diagram> diagrams = diagramService.getUserDiagrams(user);
-        model.addAttribute("diagrams", diagrams);
+    public String listDiagrams(Model model, AuthenticatedUser currentUser) {
+        DiagramSummaryPage page = diagramService.getUserDiagramSummaries(currentUser.getId(), null, LIST_PAGE_SIZE);
+        model.addAttribute("diagrams", page.getItems());
+        model.addAttribute("nextCursor", page.getNextCursor());
 
         return "diagrams/list";
     }
 
+    @GetMapping("/diagrams/summaries")
+    @ResponseBody
+    public ResponseEntity<DiagramSummaryPage> listDiagramSummaries(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            AuthenticatedUser currentUser) {
+        int pageSize = Math.min(Math.max(size, 1), MAX_LIST_PAGE_SIZE);
+        try {
+            return ResponseEntity.ok(diagramService.getUserDiagramSummaries(currentUser.getId(), cursor, pageSize));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid diagram list cursor from user {}: {}", currentUser.getUsername(), cursor);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @GetMapping("/diagrams/new")
     public String newDiagram(Model model) {
         model.addAttribute("diagramRequest", new DiagramRequest());
@@ -108,67 +154,82 @@ public class DiagramController {
 
     @PostMapping("/diagrams/refine")
     @ResponseBody
-    public ResponseEntity<DiagramResponse> refineDiagram(@RequestBody DiagramRequest request) {
-        DiagramResponse response = diagramService.refineDiagram(request);
+    public ResponseEntity<DiagramResponse> refineDiagram(@RequestBody DiagramRequest request,
+            AuthenticatedUser currentUser) {
+        DiagramResponse response = diagramService.refineDiagram(request, currentUser.getId());
         return ResponseEntity.ok(response);
     }
 
+    @PostMapping(value = "/diagrams/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public Flux<ServerSentEvent<DiagramStreamEvent>> streamGenerateDiagram(@RequestBody DiagramRequest request) {
+        return toServerSentEvents(diagramService.streamGenerateDiagram(request));
+    }
+
+    @PostMapping(value = "/diagrams/refine/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public Flux<ServerSentEvent<DiagramStreamEvent>> streamRefineDiagram(@RequestBody DiagramRequest request,
+            AuthenticatedUser currentUser) {
+        return toServerSentEvents(diagramService.streamRefineDiagram(request, currentUser.getId()));
+    }
+
+    /**
+     * Parse-only check for live syntax feedback while editing; nothing is rendered.
+     */
+    @PostMapping(value = "/diagrams/syntax-check", consumes = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public SyntaxCheckResult checkSyntax(@RequestBody String plantUmlCode) {
+        return diagramService.checkSyntax(plantUmlCode);
+    }
+
+    private void addVersionHistory(Model model, Long diagramId, int historyPage) {
+        Page<DiagramVersionSummary> versionPage =
+                diagramService.getDiagramVersionSummaries(diagramId, historyPage, HISTORY_PAGE_SIZE);
+        model.addAttribute("versions", versionPage.getContent());
+        model.addAttribute("versionPage", versionPage);
+    }
+
+    private static Flux<ServerSentEvent<DiagramStreamEvent>> toServerSentEvents(Flux<DiagramStreamEvent> events) {
+        return events.map(event -> ServerSentEvent.builder(event)
+                .event(event.getType())
+                .build());
+    }
+
     @PostMapping("/diagrams/save")
     public String saveDiagram(
             @Valid @ModelAttribute DiagramRequest request,
             @RequestParam String plantUmlCode,
-            Authentication authentication) {
+            AuthenticatedUser currentUser) {
 
-        User user = userService.getUserByUsername(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
-        diagramService.saveDiagram(request, plantUmlCode, user);
+        diagramService.saveDiagram(request, plantUmlCode, userService.getReference(currentUser));
 
         return "redirect:/diagrams";
     }
 
     @GetMapping("/diagrams/{id}")
-    public String viewDiagram(@PathVariable Long id, Model model, Authentication authentication) {
-        User user = userService.getUserByUsername(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
-        Optional<Diagram> diagramOpt = diagramService.getDiagramById(id);
+    public String viewDiagram(@PathVariable Long id,
+            @RequestParam(defaultValue = "0") int historyPage,
+            Model model, AuthenticatedUser currentUser) {
+        Optional<Diagram> diagramOpt = diagramService.getUserDiagram(id, currentUser.getId());
 
-        if (diagramOpt.isEmpty() || !diagramOpt.get().getUser().getId().equals(user.getId())) {
-            logger.warn("Attempt to access diagram id {} by unauthorized user {}", id, user.getUsername());
+        if (diagramOpt.isEmpty()) {
+            logger.warn("Attempt to access diagram id {} by unauthorized user {}", id, currentUser.getUsername());
             return "redirect:/diagrams";
         }
 
         Diagram diagram = diagramOpt.get();
         model.addAttribute("diagram", diagram);
 
-        // Get diagram versions
-        List<DiagramVersion> versions = diagramService.getDiagramVersions(id);
-        model.addAttribute("versions", versions);
+        // One page of version metadata; version code is only loaded when a version is opened
+        addVersionHistory(model, id, historyPage);
 
-        String svgImage = null;
-        String svgRenderingError = null;
-
-        try {
-            svgImage = diagramService.renderDiagramAsSvg(diagram.getPlantUmlCode());
-        } catch (PlantUmlRenderingException e) {
-            logger.error("Failed to render SVG for diagram id {}: {}", id, e.getMessage());
-            svgRenderingError = "Could not render diagram preview: " + e.getMessage();
-            svgImage = "<svg width='100%' height='100'><text x='10' y='50' fill='red'>Error rendering diagram.</text></svg>";
-        } catch (IllegalArgumentException e) {
-            logger.error("Invalid PlantUML code structure for diagram id {}: {}", id, e.getMessage());
-            svgRenderingError = "Invalid PlantUML code structure: " + e.getMessage();
-            svgImage = "<svg width='100%' height='100'><text x='10' y='50' fill='red'>Invalid code structure.</text></svg>";
-        }
-
-        model.addAttribute("svgImage", svgImage);
-        if (svgRenderingError != null) {
-            model.addAttribute("svgRenderingError", svgRenderingError);
-        }
+        // The image is fetched separately, so the page does not wait for the render
+        model.addAttribute("svgUrl", "/diagrams/" + id + ".svg");
 
         DiagramRequest refinementRequest = new DiagramRequest();
         refinementRequest.setTitle(diagram.getTitle());
         refinementRequest.setDescription(diagram.getDescription());
+        refinementRequest.setDiagramId(diagram.getId());
         refinementRequest.setExistingCode(diagram.getPlantUmlCode());
         model.addAttribute("refinementRequest", refinementRequest);
 
@@ -181,21 +242,26 @@ public class DiagramController {
             @RequestParam String plantUmlCode,
             @RequestParam(required = false) String versionLabel,
             @RequestParam(required = false) String versionNotes,
-            Authentication authentication) {
-
-        User user = userService.getUserByUsername(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
+            AuthenticatedUser currentUser,
+            RedirectAttributes redirectAttributes) {
 
-        Optional<Diagram> diagramOpt = diagramService.getDiagramById(id);
+        Optional<Diagram> diagramOpt = diagramService.getUserDiagram(id, currentUser.getId());
 
-        if (diagramOpt.isEmpty() || !diagramOpt.get().getUser().getId().equals(user.getId())) {
-            logger.warn("Attempt to save version for diagram id {} by unauthorized user {}", id, user.getUsername());
+        if (diagramOpt.isEmpty()) {
+            logger.warn("Attempt to save version for diagram id {} by unauthorized user {}", id,
+                    currentUser.getUsername());
             return "redirect:/diagrams";
         }
 
         Diagram diagram = diagramOpt.get();
 
-        diagramService.saveVersion(diagram, plantUmlCode, versionLabel, versionNotes);
+        try {
+            diagramService.saveVersion(diagram, plantUmlCode, versionLabel, versionNotes);
+        } catch (OptimisticLockingFailureException | DataIntegrityViolationException e) {
+            logger.warn("Concurrent save of a version for diagram id {}: {}", id, e.getMessage());
+            redirectAttributes.addFlashAttribute("errorMessage",
+                    "This diagram was changed while you were saving. Please review it and save again.");
+        }
 
         return "redirect:/diagrams/" + id;
     }
@@ -204,12 +270,9 @@ public class DiagramController {
     public String switchVersion(
             @PathVariable Long id,
             @RequestParam Integer versionNumber,
-            Authentication authentication) {
+            AuthenticatedUser currentUser) {
 
-        User user = userService.getUserByUsername(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
-        boolean success = diagramService.switchDiagramVersion(id, versionNumber, user);
+        boolean success = diagramService.switchDiagramVersion(id, versionNumber, currentUser.getId());
 
         if (!success) {
             logger.warn("Failed to switch version {} for diagram id {}", versionNumber, id);
@@ -222,25 +285,23 @@ public class DiagramController {
     public String viewVersion(
             @PathVariable Long id,
             @PathVariable Integer versionNumber,
+            @RequestParam(defaultValue = "0") int historyPage,
             Model model,
-            Authentication authentication) {
-
-        User user = userService.getUserByUsername(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
+            AuthenticatedUser currentUser) {
 
-        Optional<Diagram> diagramOpt = diagramService.getDiagramById(id);
+        Optional<Diagram> diagramOpt = diagramService.getUserDiagram(id, currentUser.getId());
 
-        if (diagramOpt.isEmpty() || !diagramOpt.get().getUser().getId().equals(user.getId())) {
-            logger.warn("Attempt to view version for diagram id {} by unauthorized user {}", id, user.getUsername());
+        if (diagramOpt.isEmpty()) {
+            logger.warn("Attempt to view version for diagram id {} by unauthorized user {}", id,
+                    currentUser.getUsername());
             return "redirect:/diagrams";
         }
 
         Diagram diagram = diagramOpt.get();
         model.addAttribute("diagram", diagram);
 
-        // Get all versions for the version history panel
-        List<DiagramVersion> versions = diagramService.getDiagramVersions(id);
-        model.addAttribute("versions", versions);
+        // One page of version metadata for the version history panel
+        addVersionHistory(model, id, historyPage);
 
         // Get the specific version requested
         Optional<DiagramVersion> versionOpt = diagramService.getDiagramVersionByNumber(id, versionNumber);
@@ -253,30 +314,12 @@ public class DiagramController {
         DiagramVersion version = versionOpt.get();
         model.addAttribute("selectedVersion", version);
 
-        String svgImage = null;
-        String svgRenderingError = null;
-
-        try {
-            svgImage = diagramService.renderDiagramAsSvg(version.getPlantUmlCode());
-        } catch (PlantUmlRenderingException e) {
-            logger.error("Failed to render SVG for diagram id {} version {}: {}", id, versionNumber, e.getMessage());
-            svgRenderingError = "Could not render diagram preview: " + e.getMessage();
-            svgImage = "<svg width='100%' height='100'><text x='10' y='50' fill='red'>Error rendering diagram.</text></svg>";
-        } catch (IllegalArgumentException e) {
-            logger.error("Invalid PlantUML code structure for diagram id {} version {}: {}", id, versionNumber,
-                    e.getMessage());
-            svgRenderingError = "Invalid PlantUML code structure: " + e.getMessage();
-            svgImage = "<svg width='100%' height='100'><text x='10' y='50' fill='red'>Invalid code structure.</text></svg>";
-        }
-
-        model.addAttribute("svgImage", svgImage);
-        if (svgRenderingError != null) {
-            model.addAttribute("svgRenderingError", svgRenderingError);
-        }
+        model.addAttribute("svgUrl", "/diagrams/" + id + "/versions/" + versionNumber + ".svg");
 
         DiagramRequest refinementRequest = new DiagramRequest();
         refinementRequest.setTitle(diagram.getTitle());
         refinementRequest.setDescription(diagram.getDescription());
+        refinementRequest.setDiagramId(diagram.getId());
         refinementRequest.setExistingCode(version.getPlantUmlCode());
         model.addAttribute("refinementRequest", refinementRequest);
 
@@ -284,84 +327,298 @@ public class DiagramController {
     }
 
     @GetMapping("/diagrams/{id}/download/png")
-    public ResponseEntity<byte[]> downloadDiagramAsPng(@PathVariable Long id, Authentication authentication) {
-        User user = userService.getUserByUsername(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
+    public ResponseEntity<Resource> downloadDiagramAsPng(@PathVariable Long id, AuthenticatedUser currentUser,
+            WebRequest webRequest) {
+        Optional<Diagram> diagramOpt = diagramService.getUserDiagram(id, currentUser.getId());
 
-        Optional<Diagram> diagramOpt = diagramService.getDiagramById(id);
-
-        if (diagramOpt.isEmpty() || !diagramOpt.get().getUser().getId().equals(user.getId())) {
-            logger.warn("Attempt to download diagram id {} by unauthorized user {}", id, user.getUsername());
+        if (diagramOpt.isEmpty()) {
+            logger.warn("Attempt to download diagram id {} by unauthorized user {}", id, currentUser.getUsername());
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body(null);
         }
 
         Diagram diagram = diagramOpt.get();
+        String etag = imageETag(diagram.getSourceHash(), FileFormat.PNG);
+        if (webRequest.checkNotModified(etag, epochMillis(diagram.getUpdatedAt()))) {
+            return notModified(etag, CURRENT_IMAGE_CACHE_CONTROL);
+        }
         try {
-            byte[] pngData = diagramService.renderDiagramAsPng(diagram.getPlantUmlCode());
+            Resource pngArtifact = diagramService.getDiagramArtifact(diagram.getPlantUmlCode(), FileFormat.PNG);
 
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.IMAGE_PNG);
             String filename = diagram.getTitle().replaceAll("[^a-zA-Z0-9.-]", "_") + ".png";
             headers.setContentDispositionFormData("attachment", filename);
+            headers.setETag(etag);
+            headers.setLastModified(epochMillis(diagram.getUpdatedAt()));
+            headers.setCacheControl(CURRENT_IMAGE_CACHE_CONTROL);
 
-            return new ResponseEntity<>(pngData, headers, HttpStatus.OK);
+            // Streamed from the artifact file by ResourceHttpMessageConverter, never buffered as a byte[]
+            return new ResponseEntity<>(pngArtifact, headers, HttpStatus.OK);
 
         } catch (PlantUmlRenderingException | IllegalArgumentException e) {
             logger.error("Failed to render PNG for download for diagram id {}: {}", id, e.getMessage());
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.TEXT_PLAIN);
-            return new ResponseEntity<>(("Error rendering diagram: " + e.getMessage()).getBytes(), headers,
-                    HttpStatus.INTERNAL_SERVER_ERROR);
+            return new ResponseEntity<>(new ByteArrayResource(("Error rendering diagram: " + e.getMessage()).getBytes()),
+                    headers, HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (RenderRejectedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Unexpected error during PNG download for diagram id {}: {}", id, e.getMessage(), e);
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.TEXT_PLAIN);
-            return new ResponseEntity<>(("Unexpected error creating diagram file.").getBytes(), headers,
-                    HttpStatus.INTERNAL_SERVER_ERROR);
+            return new ResponseEntity<>(new ByteArrayResource("Unexpected error creating diagram file.".getBytes()),
+                    headers, HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
-    @PostMapping("/diagrams/render/png")
-    public ResponseEntity<byte[]> renderDiagramAsPngFromCode(@RequestBody String plantUmlCode,
-            @RequestParam(required = false, defaultValue = "diagram") String filename) {
-        if (plantUmlCode == null || plantUmlCode.trim().isEmpty()) {
-            return ResponseEntity.badRequest().body("PlantUML code cannot be empty.".getBytes());
+    /**
+     * Downloads in any {@link RenderFormat}, rendered straight onto the
+     * response. PNG keeps its own mapping above, served from the stored
+     * artifact.
+     */
+    @GetMapping("/diagrams/{id}/download/{format}")
+    public void downloadDiagram(@PathVariable Long id, @PathVariable String format, AuthenticatedUser currentUser,
+            WebRequest webRequest, HttpServletResponse response) throws IOException {
+        Optional<RenderFormat> renderFormat = RenderFormat.fromUrlName(format);
+        if (renderFormat.isEmpty()) {
+            response.sendError(HttpStatus.NOT_FOUND.value(), "Unsupported download format: " + format);
+            return;
         }
-        logger.debug("Received request to render PNG from code. Filename hint: {}", filename);
+        Optional<Diagram> diagramOpt = diagramService.getUserDiagram(id, currentUser.getId());
+        if (diagramOpt.isEmpty()) {
+            logger.warn("Attempt to download diagram id {} by unauthorized user {}", id, currentUser.getUsername());
+            response.sendError(HttpStatus.FORBIDDEN.value());
+            return;
+        }
+
+        Diagram diagram = diagramOpt.get();
+        FileFormat fileFormat = renderFormat.get().getFileFormat();
+        String etag = imageETag(diagram.getSourceHash(), fileFormat);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CURRENT_IMAGE_CACHE_CONTROL.getHeaderValue());
+        if (webRequest.checkNotModified(etag, epochMillis(diagram.getUpdatedAt()))) {
+            return;
+        }
+        response.setContentType(renderFormat.get().getContentType());
+        String filename = diagram.getTitle().replaceAll("[^a-zA-Z0-9.-]", "_") + "."
+                + renderFormat.get().getExtension();
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(filename).build().toString());
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, epochMillis(diagram.getUpdatedAt()));
+        streamRender(diagram.getPlantUmlCode(), fileFormat, response, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
 
+    /**
+     * The list-page thumbnail. Immutable when {@code v} names the current
+     * source hash, since a new source gets a new URL. Answers 404 while the
+     * thumbnail is still being generated.
+     */
+    @GetMapping("/diagrams/{id}/thumbnail.png")
+    public ResponseEntity<Resource> diagramThumbnail(@PathVariable Long id,
+            @RequestParam(required = false) String v, AuthenticatedUser currentUser, WebRequest webRequest) {
+        Optional<Diagram> diagramOpt = diagramService.getUserDiagram(id, currentUser.getId());
+        if (diagramOpt.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        Diagram diagram = diagramOpt.get();
+        String sourceHash = diagram.getSourceHash();
+        CacheControl cacheControl = sourceHash.equals(v) ? immutableImageCacheControl : CURRENT_IMAGE_CACHE_CONTROL;
+        String etag = "\"" + sourceHash + "-thumb\"";
+        if (webRequest.checkNotModified(etag)) {
+            return notModified(etag, cacheControl);
+        }
+        return diagramService.getDiagramThumbnail(diagram)
+                .map(thumbnail -> ResponseEntity.ok()
+                        .contentType(MediaType.IMAGE_PNG)
+                        .eTag(etag)
+                        .cacheControl(cacheControl)
+                        .body(thumbnail))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .cacheControl(CacheControl.noStore())
+                        .build());
+    }
+
+    /**
+     * A render addressed by its source hash, as referenced by generate and
+     * refine responses. The content behind a hash never changes.
+     */
+    @GetMapping("/diagrams/renders/{hash:[0-9a-f]{64}}.svg")
+    public ResponseEntity<Resource> renderedSvg(@PathVariable String hash, AuthenticatedUser currentUser,
+            WebRequest webRequest) {
+        Optional<Resource> precompressed = precompressedVariant(webRequest, hash, FileFormat.SVG);
+        String etag = imageETag(hash, FileFormat.SVG, precompressed.isPresent());
+        if (webRequest.checkNotModified(etag)) {
+            return notModified(etag, immutableImageCacheControl);
+        }
         try {
-            byte[] pngData = diagramService.renderDiagramAsPng(plantUmlCode);
+            return diagramService.getRenderedArtifact(hash, FileFormat.SVG, currentUser.getId())
+                    .map(artifact -> imageResponse(artifact, precompressed, etag, FileFormat.SVG, null,
+                            immutableImageCacheControl))
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (PlantUmlRenderingException e) {
+            logger.error("Failed to render SVG for source {}: {}", hash, e.getMessage());
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).build();
+        }
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.IMAGE_PNG);
-            String sanitizedFilename = filename.replaceAll("[^a-zA-Z0-9.-]", "_") + ".png";
-            headers.setContentDispositionFormData("attachment", sanitizedFilename);
+    /**
+     * The diagram's current image. It changes whenever a version is saved or
+     * switched to, so clients revalidate with the ETag on every use.
+     */
+    @GetMapping("/diagrams/{id}.svg")
+    public ResponseEntity<Resource> currentDiagramSvg(@PathVariable Long id, AuthenticatedUser currentUser,
+            WebRequest webRequest) {
+        return diagramService.getUserDiagram(id, currentUser.getId())
+                .map(diagram -> conditionalImage(webRequest, diagram.getPlantUmlCode(), diagram.getSourceHash(),
+                        diagram.getUpdatedAt(), FileFormat.SVG, CURRENT_IMAGE_CACHE_CONTROL))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 
-            return new ResponseEntity<>(pngData, headers, HttpStatus.OK);
+    @GetMapping("/diagrams/{id}/versions/{versionNumber}.svg")
+    public ResponseEntity<Resource> versionSvg(@PathVariable Long id, @PathVariable Integer versionNumber,
+            AuthenticatedUser currentUser, WebRequest webRequest) {
+        return versionImage(id, versionNumber, currentUser, webRequest, FileFormat.SVG);
+    }
 
+    @GetMapping("/diagrams/{id}/versions/{versionNumber}.png")
+    public ResponseEntity<Resource> versionPng(@PathVariable Long id, @PathVariable Integer versionNumber,
+            AuthenticatedUser currentUser, WebRequest webRequest) {
+        return versionImage(id, versionNumber, currentUser, webRequest, FileFormat.PNG);
+    }
+
+    private ResponseEntity<Resource> versionImage(Long id, Integer versionNumber, AuthenticatedUser currentUser,
+            WebRequest webRequest, FileFormat format) {
+        return diagramService.getUserDiagramVersionByNumber(id, versionNumber, currentUser.getId())
+                .map(version -> conditionalImage(webRequest, version.getPlantUmlCode(), version.getSourceHash(),
+                        version.getCreatedAt(), format, immutableImageCacheControl))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Serves a rendered image with a strong ETag derived from the source
+     * hash. A request whose validators still match is answered with 304
+     * before anything is rendered or read from the artifact store.
+     */
+    private ResponseEntity<Resource> conditionalImage(WebRequest webRequest, String plantUmlCode, String sourceHash,
+            LocalDateTime lastModified, FileFormat format, CacheControl cacheControl) {
+        Optional<Resource> precompressed = precompressedVariant(webRequest, sourceHash, format);
+        String etag = imageETag(sourceHash, format, precompressed.isPresent());
+        if (webRequest.checkNotModified(etag, epochMillis(lastModified))) {
+            return notModified(etag, cacheControl);
+        }
+        try {
+            Resource artifact = diagramService.getDiagramArtifact(plantUmlCode, format);
+            return imageResponse(artifact, precompressed, etag, format, epochMillis(lastModified), cacheControl);
         } catch (PlantUmlRenderingException | IllegalArgumentException e) {
-            logger.error("Failed to render PNG from provided code: {}", e.getMessage());
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.TEXT_PLAIN);
-            return new ResponseEntity<>(("Error rendering diagram: " + e.getMessage()).getBytes(), headers,
-                    HttpStatus.BAD_REQUEST);
-        } catch (Exception e) {
-            logger.error("Unexpected error during PNG rendering from code: {}", e.getMessage(), e);
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.TEXT_PLAIN);
-            return new ResponseEntity<>(("Unexpected error creating diagram file.").getBytes(), headers,
-                    HttpStatus.INTERNAL_SERVER_ERROR);
+            logger.error("Failed to render {} image for source {}: {}", format, sourceHash, e.getMessage());
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(new ByteArrayResource(("Error rendering diagram: " + e.getMessage()).getBytes()));
         }
     }
 
-    @PostMapping("/diagrams/{id}/delete")
-    public String deleteDiagram(@PathVariable Long id, Authentication authentication) {
-        User user = userService.getUserByUsername(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
+    /**
+     * A 200 image response. When the client accepts gzip and a precompressed
+     * variant is stored, that file is sent as is, so responses cost no
+     * compression CPU.
+     */
+    private static ResponseEntity<Resource> imageResponse(Resource artifact, Optional<Resource> precompressed,
+            String etag, FileFormat format, Long lastModified, CacheControl cacheControl) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(format == FileFormat.PNG ? MediaType.IMAGE_PNG : SVG_MEDIA_TYPE)
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (lastModified != null) {
+            response.lastModified(lastModified);
+        }
+        if (precompressed.isPresent()) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(precompressed.get());
+        }
+        return response.body(artifact);
+    }
+
+    /**
+     * The stored gzip variant, if the client accepts it and one exists.
+     * Chosen once per request, before the conditional check, so that the 304
+     * and the full response carry the ETag of the same representation.
+     */
+    private Optional<Resource> precompressedVariant(WebRequest webRequest, String sourceHash, FileFormat format) {
+        String acceptEncoding = webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (format != FileFormat.SVG || acceptEncoding == null || !acceptEncoding.toLowerCase().contains("gzip")) {
+            return Optional.empty();
+        }
+        return diagramService.getPrecompressedArtifact(sourceHash, format);
+    }
+
+    private static ResponseEntity<Resource> notModified(String etag, CacheControl cacheControl) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .build();
+    }
+
+    private static String imageETag(String sourceHash, FileFormat format) {
+        return imageETag(sourceHash, format, false);
+    }
+
+    // Each content encoding is a separate representation and needs its own ETag
+    private static String imageETag(String sourceHash, FileFormat format, boolean gzip) {
+        return "\"" + sourceHash + "-" + format.name().toLowerCase() + (gzip ? "-gz" : "") + "\"";
+    }
 
-        Optional<Diagram> diagram = diagramService.getDiagramById(id);
+    private static long epochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 
-        if (diagram.isPresent() && diagram.get().getUser().getId().equals(user.getId())) {
+    @PostMapping("/diagrams/render/png")
+    public void renderDiagramAsPngFromCode(@RequestBody String plantUmlCode,
+            @RequestParam(required = false, defaultValue = "diagram") String filename,
+            HttpServletResponse response) throws IOException {
+        if (plantUmlCode == null || plantUmlCode.trim().isEmpty()) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "PlantUML code cannot be empty.");
+            return;
+        }
+        logger.debug("Received request to render PNG from code. Filename hint: {}", filename);
+
+        response.setContentType(MediaType.IMAGE_PNG_VALUE);
+        String sanitizedFilename = filename.replaceAll("[^a-zA-Z0-9.-]", "_") + ".png";
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.formData().name("attachment").filename(sanitizedFilename).build().toString());
+        streamRender(plantUmlCode, FileFormat.PNG, response, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Renders onto the response without buffering the image. A failure
+     * detected before any image bytes went out replaces the response with a
+     * plain-text error; after that the response can only be cut short.
+     */
+    private void streamRender(String plantUmlCode, FileFormat format, HttpServletResponse response,
+            HttpStatus errorStatus) throws IOException {
+        try {
+            diagramService.renderDiagram(plantUmlCode, format, response.getOutputStream());
+        } catch (PlantUmlRenderingException | IllegalArgumentException e) {
+            logger.error("Failed to render {} onto the response: {}", format, e.getMessage());
+            if (response.isCommitted()) {
+                return;
+            }
+            // The render worker never writes to the response, so it is safe to replace the output here
+            response.reset();
+            response.setStatus(errorStatus.value());
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getOutputStream().write(("Error rendering diagram: " + e.getMessage())
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @PostMapping("/diagrams/{id}/delete")
+    public String deleteDiagram(@PathVariable Long id, AuthenticatedUser currentUser) {
+        Optional<Diagram> diagram = diagramService.getUserDiagram(id, currentUser.getId());
+
+        if (diagram.isPresent()) {
             diagramService.deleteDiagram(id);
         }
 
@@ -369,12 +626,9 @@ public class DiagramController {
     }
 
     @PostMapping("/diagrams/versions/{versionId}/delete")
-    public String deleteVersion(@PathVariable Long versionId, Authentication authentication,
+    public String deleteVersion(@PathVariable Long versionId, AuthenticatedUser currentUser,
             RedirectAttributes redirectAttributes) {
-        User user = userService.getUserByUsername(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
-        Optional<DiagramVersion> versionOpt = diagramService.getDiagramVersionById(versionId);
+        Optional<DiagramVersion> versionOpt = diagramService.getUserDiagramVersion(versionId, currentUser.getId());
 
         if (versionOpt.isEmpty()) {
             redirectAttributes.addFlashAttribute("errorMessage", "Version not found");
@@ -384,7 +638,7 @@ public class DiagramController {
         DiagramVersion version = versionOpt.get();
         Long diagramId = version.getDiagram().getId();
 
-        boolean deleted = diagramService.deleteDiagramVersion(versionId, user);
+        boolean deleted = diagramService.deleteDiagramVersion(versionId, currentUser.getId());
 
         if (deleted) {
             redirectAttributes.addFlashAttribute("successMessage", "Version deleted successfully");
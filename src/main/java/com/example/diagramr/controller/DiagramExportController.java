@@ -0,0 +1,70 @@
+package com.example.diagramr.controller;
+
+import com.example.diagramr.service.diagram.DiagramExportService;
+import com.example.diagramr.service.user.AuthenticatedUser;
+import jakarta.servlet.http.HttpServletResponse;
+import net.sourceforge.plantuml.FileFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+@Controller
+public class DiagramExportController {
+
+    private final DiagramExportService diagramExportService;
+    private static final Logger logger = LoggerFactory.getLogger(DiagramExportController.class);
+
+    public DiagramExportController(DiagramExportService diagramExportService) {
+        this.diagramExportService = diagramExportService;
+    }
+
+    /**
+     * Writes the archive straight onto the servlet response on the request
+     * thread. A StreamingResponseBody would run under the async request
+     * timeout, which a large export can outlast.
+     */
+    @GetMapping("/diagrams/export")
+    public void exportDiagrams(
+            @RequestParam(defaultValue = "svg,png") List<String> formats,
+            @RequestParam(defaultValue = "false") boolean versions,
+            AuthenticatedUser currentUser,
+            HttpServletResponse response) throws IOException {
+        Set<FileFormat> fileFormats = EnumSet.noneOf(FileFormat.class);
+        for (String format : formats) {
+            switch (format.trim().toLowerCase()) {
+                case "svg" -> fileFormats.add(FileFormat.SVG);
+                case "png" -> fileFormats.add(FileFormat.PNG);
+                case "" -> { }
+                default -> {
+                    response.sendError(HttpStatus.BAD_REQUEST.value(), "Unsupported export format: " + format);
+                    return;
+                }
+            }
+        }
+
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename("diagrams.zip").build().toString());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+        try {
+            diagramExportService.exportUserDiagrams(currentUser.getId(), fileFormats, versions,
+                    response.getOutputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Export for user {} was interrupted", currentUser.getUsername());
+        } catch (IOException e) {
+            // Usually the client went away; the response is already committed
+            logger.info("Export for user {} stopped: {}", currentUser.getUsername(), e.getMessage());
+        }
+    }
+}
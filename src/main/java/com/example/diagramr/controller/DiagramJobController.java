@@ -0,0 +1,93 @@
+package com.example.diagramr.controller;
+
+import com.example.diagramr.model.DiagramJobStatus;
+import com.example.diagramr.model.DiagramRequest;
+import com.example.diagramr.model.DiagramResponse;
+import com.example.diagramr.service.job.DiagramJob;
+import com.example.diagramr.service.job.DiagramJobService;
+import com.example.diagramr.service.user.AuthenticatedUser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URI;
+import java.util.Optional;
+
+@RestController
+public class DiagramJobController {
+
+    private final DiagramJobService diagramJobService;
+    private static final Logger logger = LoggerFactory.getLogger(DiagramJobController.class);
+
+    public DiagramJobController(DiagramJobService diagramJobService) {
+        this.diagramJobService = diagramJobService;
+    }
+
+    @PostMapping("/diagrams/jobs/generate")
+    public ResponseEntity<DiagramJobStatus> submitGenerate(@RequestBody DiagramRequest request,
+            AuthenticatedUser currentUser) {
+        return accepted(diagramJobService.submitGenerate(request, currentUser.getId()));
+    }
+
+    @PostMapping("/diagrams/jobs/refine")
+    public ResponseEntity<DiagramJobStatus> submitRefine(@RequestBody DiagramRequest request,
+            AuthenticatedUser currentUser) {
+        return accepted(diagramJobService.submitRefine(request, currentUser.getId()));
+    }
+
+    @GetMapping("/diagrams/jobs/{jobId}")
+    public ResponseEntity<DiagramJobStatus> getJobStatus(@PathVariable String jobId, AuthenticatedUser currentUser) {
+        return diagramJobService.getJob(jobId, currentUser.getId())
+                .map(job -> ResponseEntity.ok(job.toStatus()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/diagrams/jobs/{jobId}/result")
+    public ResponseEntity<DiagramResponse> getJobResult(@PathVariable String jobId, AuthenticatedUser currentUser) {
+        Optional<DiagramJob> jobOpt = diagramJobService.getJob(jobId, currentUser.getId());
+        if (jobOpt.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        DiagramJob job = jobOpt.get();
+        if (!job.isFinished()) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+        }
+        if (job.getStatus() == DiagramJob.Status.CANCELLED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(DiagramResponse.builder()
+                    .isValid(false)
+                    .errorMessage("The diagram job was cancelled")
+                    .build());
+        }
+        if (job.getResult() == null) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(DiagramResponse.builder()
+                    .isValid(false)
+                    .errorMessage(job.toStatus().getErrorMessage())
+                    .build());
+        }
+        return ResponseEntity.ok(job.getResult());
+    }
+
+    @PostMapping("/diagrams/jobs/{jobId}/cancel")
+    public ResponseEntity<DiagramJobStatus> cancelJob(@PathVariable String jobId, AuthenticatedUser currentUser) {
+        return diagramJobService.cancel(jobId, currentUser.getId())
+                .map(job -> ResponseEntity.ok(job.toStatus()))
+                .orElseGet(() -> {
+                    logger.warn("Attempt to cancel unknown job {} by user id {}", jobId, currentUser.getId());
+                    return ResponseEntity.notFound().build();
+                });
+    }
+
+    private static ResponseEntity<DiagramJobStatus> accepted(DiagramJob job) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/diagrams/jobs/" + job.getId()))
+                .body(job.toStatus());
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.diagramr.exception;
+
+import java.time.Duration;
+
+/**
+ * Raised when a bounded pool refuses new work. Reported to clients as
+ * HTTP 429 with a Retry-After header.
+ */
+public class CapacityRejectedException extends RuntimeException {
+    private final Duration retryAfter;
+
+    public CapacityRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.diagramr.exception;
+
+import java.time.Duration;
+
+public class JobRejectedException extends CapacityRejectedException {
+    public JobRejectedException(String message, Duration retryAfter) {
+        super(message, retryAfter);
+    }
+}
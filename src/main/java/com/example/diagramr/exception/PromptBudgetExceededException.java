@@ -0,0 +1,7 @@
+package com.example.diagramr.exception;
+
+public class PromptBudgetExceededException extends RuntimeException {
+    public PromptBudgetExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.diagramr.exception;
+
+import java.time.Duration;
+
+public class RenderRejectedException extends CapacityRejectedException {
+    public RenderRejectedException(String message, Duration retryAfter) {
+        super(message, retryAfter);
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.diagramr.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of a batch render response. Carries either the rendered output
+ * or an error message; {@code index} is the item's position in the request,
+ * since results arrive in completion order.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchRenderResult {
+    private int index;
+    // Caller-supplied id from a JSON item, if any
+    private String id;
+    private String sourceHash;
+    private String format;
+    private String svg;
+    // Serialized as base64
+    private byte[] png;
+    private String error;
+    private long elapsedMs;
+}
@@ -4,12 +4,15 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import com.example.diagramr.util.PlantUmlSourceHasher;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "diagrams")
+// Supports the keyset-paginated list: user's diagrams by (updated_at, id) descending
+@Table(name = "diagrams", indexes = @Index(name = "idx_diagrams_user_updated_id",
+        columnList = "user_id, updated_at desc, id desc"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -24,22 +27,39 @@ public class Diagram {
     @Column(nullable = false, length = 1000)
     private String description;
 
-    @Column(nullable = false, columnDefinition = "TEXT")
-    private String plantUmlCode;
+    // Inline source of diagrams saved before blob storage; null once the diagram references a blob
+    @Convert(converter = PlantUmlSourceConverter.class)
+    @Column(name = "plant_uml_code", columnDefinition = "bytea")
+    private String storedCode;
+
+    // Current source, shared with every diagram and version that has the same content
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "source_hash")
+    private SourceBlob source;
 
     @Column(nullable = false)
     private LocalDateTime createdAt;
 
-    @Column(nullable = false)
+    @Column(name = "updated_at", nullable = false)
     private LocalDateTime updatedAt;
     
     @Column(nullable = false)
     private Integer currentVersionNumber = 1;
 
+    // Highest version number ever handed out; never reused after a version is deleted
+    @Column(name = "last_version_number")
+    private Integer lastVersionNumber = 0;
+
+    // Optimistic lock, so concurrent saves cannot hand out the same version number
+    @Version
+    @Column(name = "lock_version")
+    private Long lockVersion;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
     
+    // Only used to cascade deletes; never loaded when saving or reading versions
     @OneToMany(mappedBy = "diagram", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<DiagramVersion> versions = new ArrayList<>();
 
@@ -54,17 +74,26 @@ public class Diagram {
         updatedAt = LocalDateTime.now();
     }
     
+    public String getPlantUmlCode() {
+        return source != null ? source.getContent() : storedCode;
+    }
+
+    /**
+     * Hash of the current source, as used by the render cache. Read from the
+     * foreign key without loading the blob.
+     */
+    public String getSourceHash() {
+        return source != null ? source.getHash() : PlantUmlSourceHasher.hash(storedCode);
+    }
+
+    /**
+     * Numbers the version from the persisted counter and makes it current.
+     * The caller saves the version; the versions collection is not touched.
+     */
     public void addVersion(DiagramVersion version) {
-        versions.add(version);
+        lastVersionNumber = lastVersionNumber + 1;
         version.setDiagram(this);
-        version.setVersionNumber(versions.size());
-        this.currentVersionNumber = versions.size();
-    }
-    
-    public DiagramVersion getCurrentVersion() {
-        return versions.stream()
-            .filter(v -> v.getVersionNumber().equals(this.currentVersionNumber))
-            .findFirst()
-            .orElse(null);
+        version.setVersionNumber(lastVersionNumber);
+        this.currentVersionNumber = lastVersionNumber;
     }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.example.diagramr.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramJobStatus {
+    private String jobId;
+    private String type;
+    private String status;
+    private Instant createdAt;
+    private Instant finishedAt;
+    private int receivedChars;
+    private String errorMessage;
+}
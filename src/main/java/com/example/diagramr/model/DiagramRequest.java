@@ -24,4 +24,10 @@ public class DiagramRequest {
     private String feedback;
     
     private String existingCode;
+
+    // Set when refining a saved diagram; refinements then share a server-side session
+    private Long diagramId;
+
+    // Skips the LLM response cache and always asks the model again
+    private boolean fresh;
 }
\ No newline at end of file
@@ -11,7 +11,9 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class DiagramResponse {
     private String plantUmlCode;
-    private String svgImage;
+    // Hash of the rendered source; the SVG is served from svgUrl rather than inlined
+    private String renderId;
+    private String svgUrl;
     private boolean isValid;
     private String errorMessage;
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.example.diagramr.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramStreamEvent {
+    public static final String TOKEN = "token";
+    public static final String RENDER = "render";
+    public static final String RESULT = "result";
+
+    private String type;
+    private String token;
+    private String svgUrl;
+    private DiagramResponse response;
+}
@@ -0,0 +1,29 @@
+package com.example.diagramr.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * List-view projection of {@link Diagram}. Queries returning it never select
+ * the PlantUML source column.
+ */
+public interface DiagramSummary {
+    Long getId();
+
+    String getTitle();
+
+    String getDescription();
+
+    LocalDateTime getUpdatedAt();
+
+    // Null for diagrams whose source is still stored inline
+    String getSourceHash();
+
+    /**
+     * Versioned by the source hash so the browser can cache it for good;
+     * legacy diagrams without a hash get the revalidated URL.
+     */
+    default String getThumbnailUrl() {
+        String url = "/diagrams/" + getId() + "/thumbnail.png";
+        return getSourceHash() != null ? url + "?v=" + getSourceHash() : url;
+    }
+}
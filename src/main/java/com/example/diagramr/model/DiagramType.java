@@ -0,0 +1,62 @@
+package com.example.diagramr.model;
+
+public enum DiagramType {
+    CLASS("Class Diagram"),
+    SEQUENCE("Sequence Diagram"),
+    USE_CASE("Use Case Diagram"),
+    ACTIVITY("Activity Diagram"),
+    COMPONENT("Component Diagram"),
+    STATE("State Diagram"),
+    GENERAL("General Diagram");
+
+    private final String displayName;
+
+    DiagramType(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public static DiagramType fromPrompt(String prompt) {
+        prompt = prompt.toLowerCase();
+
+        if (prompt.contains("class") || prompt.contains("inheritance") || prompt.contains("attributes")
+                || prompt.contains("methods")) {
+            return CLASS;
+        } else if (prompt.contains("sequence") || prompt.contains("message") || prompt.contains("actor")) {
+            return SEQUENCE;
+        } else if (prompt.contains("use case") || prompt.contains("actor") || prompt.contains("user")) {
+            return USE_CASE;
+        } else if (prompt.contains("activity") || prompt.contains("workflow") || prompt.contains("process")) {
+            return ACTIVITY;
+        } else if (prompt.contains("component") || prompt.contains("interface") || prompt.contains("service")) {
+            return COMPONENT;
+        } else if (prompt.contains("state") || prompt.contains("transition")) {
+            return STATE;
+        } else {
+            return GENERAL;
+        }
+    }
+
+    public static DiagramType fromCode(String code) {
+        code = code.toLowerCase();
+
+        if (code.contains("class ")) {
+            return CLASS;
+        } else if (code.contains("actor ") || code.contains("participant ")) {
+            return SEQUENCE;
+        } else if (code.contains("usecase")) {
+            return USE_CASE;
+        } else if (code.contains("start") && code.contains("end") && (code.contains("if") || code.contains("while"))) {
+            return ACTIVITY;
+        } else if (code.contains("component")) {
+            return COMPONENT;
+        } else if (code.contains("state")) {
+            return STATE;
+        } else {
+            return GENERAL;
+        }
+    }
+}
@@ -4,10 +4,13 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import com.example.diagramr.util.PlantUmlSourceHasher;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "diagram_versions")
+// The unique key also serves the paginated version history of a diagram
+@Table(name = "diagram_versions", uniqueConstraints = @UniqueConstraint(
+        name = "uk_diagram_versions_diagram_number", columnNames = {"diagram_id", "version_number"}))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -16,7 +19,34 @@ public class DiagramVersion {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(nullable = false, columnDefinition = "TEXT")
+    // Inline full source of legacy rows and of snapshots written before blob storage; null otherwise
+    @Convert(converter = PlantUmlSourceConverter.class)
+    @Column(name = "plant_uml_code", columnDefinition = "bytea")
+    private String storedCode;
+
+    // Source of a snapshot, shared with other diagrams and versions with the same content
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "source_hash")
+    private SourceBlob source;
+
+    // Null on legacy rows, which are full copies and read as snapshots
+    @Enumerated(EnumType.STRING)
+    @Column(name = "storage_kind", length = 16)
+    private VersionStorageKind storageKind;
+
+    // Line delta against the base version, see LineDelta
+    @Column(name = "delta", columnDefinition = "TEXT")
+    private String delta;
+
+    @Column(name = "base_version_id")
+    private Long baseVersionId;
+
+    // Number of deltas between this version and its nearest snapshot
+    @Column(name = "chain_depth")
+    private Integer chainDepth;
+
+    // Reconstructed source, filled in by DiagramVersionStore when a version is read
+    @Transient
     private String plantUmlCode;
 
     @Column(nullable = false)
@@ -28,7 +58,7 @@ public class DiagramVersion {
     @Column(nullable = true, length = 1000)
     private String versionNotes;
 
-    @Column(nullable = false)
+    @Column(name = "version_number", nullable = false)
     private Integer versionNumber;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -39,4 +69,12 @@ public class DiagramVersion {
     protected void onCreate() {
         createdAt = LocalDateTime.now();
     }
+
+    /**
+     * Hash of the version's source, as used by the render cache. Deltas and
+     * inline snapshots must be resolved first.
+     */
+    public String getSourceHash() {
+        return source != null ? source.getHash() : PlantUmlSourceHasher.hash(plantUmlCode);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.example.diagramr.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Version-history projection of {@link DiagramVersion} without the PlantUML
+ * source; the code of a version is loaded only when that version is opened.
+ */
+public interface DiagramVersionSummary {
+    Long getId();
+
+    Integer getVersionNumber();
+
+    String getVersionLabel();
+
+    String getVersionNotes();
+
+    LocalDateTime getCreatedAt();
+}
@@ -0,0 +1,38 @@
+package com.example.diagramr.model;
+
+import com.example.diagramr.util.PlantUmlSourceCodec;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stores PlantUML source columns as bytea in {@link PlantUmlSourceCodec}
+ * format. Reads accept every format, so compression can be switched on or
+ * off at any time; the flag only decides how new values are written.
+ */
+@Component
+@Converter
+public class PlantUmlSourceConverter implements AttributeConverter<String, byte[]> {
+
+    private final boolean compressionEnabled;
+
+    public PlantUmlSourceConverter(
+            @Value("${diagramr.storage.compression.enabled:false}") boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    @Override
+    public byte[] convertToDatabaseColumn(String source) {
+        return PlantUmlSourceCodec.encode(source, compressionEnabled);
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] stored) {
+        return PlantUmlSourceCodec.decode(stored);
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.diagramr.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+
+/**
+ * Normalized PlantUML source stored once per distinct content, keyed by the
+ * same hash as the render cache. Rows are written and reference-counted only
+ * through SourceBlobRepository's native statements, so every column is
+ * read-only to Hibernate.
+ */
+@Entity
+@Table(name = "source_blobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SourceBlob {
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    @Convert(converter = PlantUmlSourceConverter.class)
+    @Column(nullable = false, columnDefinition = "bytea", insertable = false, updatable = false)
+    private String content;
+
+    @Column(name = "size_bytes", nullable = false, insertable = false, updatable = false)
+    private Integer sizeBytes;
+
+    @Column(name = "ref_count", nullable = false, insertable = false, updatable = false)
+    private Integer refCount;
+
+    @Column(name = "created_at", nullable = false, insertable = false, updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,6 @@
+package com.example.diagramr.model;
+
+public enum VersionStorageKind {
+    SNAPSHOT,
+    DELTA
+}
@@ -1,11 +1,46 @@
 package com.example.diagramr.repository;
 
 import com.example.diagramr.model.Diagram;
+import com.example.diagramr.model.DiagramSummary;
 import com.example.diagramr.model.User;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 public interface DiagramRepository extends JpaRepository<Diagram, Long> {
     List<Diagram> findByUserOrderByUpdatedAtDesc(User user);
     List<Diagram> findByTitleContainingAndUser(String title, User user);
-}
\ No newline at end of file
+
+    @EntityGraph(attributePaths = "source")
+    Optional<Diagram> findByIdAndUserId(Long id, Long userId);
+
+    @Query("select count(d) > 0 from Diagram d where d.user.id = :userId and d.source.hash = :hash")
+    boolean existsByUserIdAndSourceHash(@Param("userId") Long userId, @Param("hash") String hash);
+
+    @Query("select d.id from Diagram d where d.source is null and d.storedCode is not null")
+    List<Long> findIdsWithInlineSource();
+
+    @Query("""
+            select d.id as id, d.title as title, d.description as description, d.updatedAt as updatedAt,
+                   s.hash as sourceHash
+            from Diagram d left join d.source s
+            where d.user.id = :userId
+            order by d.updatedAt desc, d.id desc""")
+    List<DiagramSummary> findSummariesByUserId(@Param("userId") Long userId, Limit limit);
+
+    @Query("""
+            select d.id as id, d.title as title, d.description as description, d.updatedAt as updatedAt,
+                   s.hash as sourceHash
+            from Diagram d left join d.source s
+            where d.user.id = :userId
+              and (d.updatedAt < :updatedAt or (d.updatedAt = :updatedAt and d.id < :id))
+            order by d.updatedAt desc, d.id desc""")
+    List<DiagramSummary> findSummariesByUserIdAfter(@Param("userId") Long userId,
+            @Param("updatedAt") LocalDateTime updatedAt, @Param("id") Long id, Limit limit);
+}
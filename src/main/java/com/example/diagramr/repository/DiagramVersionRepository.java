@@ -2,7 +2,13 @@ package com.example.diagramr.repository;
 
 import com.example.diagramr.model.Diagram;
 import com.example.diagramr.model.DiagramVersion;
+import com.example.diagramr.model.DiagramVersionSummary;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,7 +17,47 @@ public interface DiagramVersionRepository extends JpaRepository<DiagramVersion,
 
     Optional<DiagramVersion> findByDiagramAndVersionNumber(Diagram diagram, Integer versionNumber);
 
+    @EntityGraph(attributePaths = "source")
+    Optional<DiagramVersion> findByDiagramIdAndVersionNumber(Long diagramId, Integer versionNumber);
+
+    Optional<DiagramVersion> findByIdAndDiagramUserId(Long id, Long userId);
+
+    @EntityGraph(attributePaths = "source")
+    Optional<DiagramVersion> findByDiagramIdAndVersionNumberAndDiagramUserId(Long diagramId, Integer versionNumber,
+            Long userId);
+
     long countByDiagram(Diagram diagram);
 
+    @Query("select coalesce(max(v.versionNumber), 0) from DiagramVersion v where v.diagram.id = :diagramId")
+    int findMaxVersionNumber(@Param("diagramId") Long diagramId);
+
+    List<DiagramVersion> findByBaseVersionId(Long baseVersionId);
+
+    List<DiagramVersion> findByDiagramIdOrderByVersionNumberAsc(Long diagramId);
+
+    @Query("select distinct v.diagram.id from DiagramVersion v where v.storageKind is null")
+    List<Long> findDiagramIdsWithLegacyVersions();
+
+    @Query("select v.source.hash from DiagramVersion v where v.diagram.id = :diagramId and v.source is not null")
+    List<String> findSourceHashesByDiagramId(@Param("diagramId") Long diagramId);
+
+    @Query("select count(v) > 0 from DiagramVersion v where v.diagram.user.id = :userId and v.source.hash = :hash")
+    boolean existsByUserIdAndSourceHash(@Param("userId") Long userId, @Param("hash") String hash);
+
+    @Query("""
+            select v.id from DiagramVersion v
+            where v.storageKind = com.example.diagramr.model.VersionStorageKind.SNAPSHOT
+              and v.source is null and v.storedCode is not null""")
+    List<Long> findSnapshotIdsWithInlineSource();
+
     Optional<DiagramVersion> findFirstByDiagramAndIdNotOrderByVersionNumberDesc(Diagram diagram, Long id);
-}
\ No newline at end of file
+
+    @Query(value = """
+            select v.id as id, v.versionNumber as versionNumber, v.versionLabel as versionLabel,
+                   v.versionNotes as versionNotes, v.createdAt as createdAt
+            from DiagramVersion v
+            where v.diagram.id = :diagramId
+            order by v.versionNumber desc""",
+            countQuery = "select count(v) from DiagramVersion v where v.diagram.id = :diagramId")
+    Page<DiagramVersionSummary> findSummariesByDiagramId(@Param("diagramId") Long diagramId, Pageable pageable);
+}
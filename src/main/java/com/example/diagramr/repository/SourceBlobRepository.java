@@ -0,0 +1,30 @@
+package com.example.diagramr.repository;
+
+import com.example.diagramr.model.SourceBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface SourceBlobRepository extends JpaRepository<SourceBlob, String> {
+
+    /**
+     * Inserts the blob with one reference, or adds a reference if it exists.
+     * Atomic under concurrent saves of the same content.
+     */
+    @Modifying
+    @Query(value = """
+            insert into source_blobs (hash, content, size_bytes, ref_count, created_at)
+            values (:hash, :content, :sizeBytes, 1, now())
+            on conflict (hash) do update set ref_count = source_blobs.ref_count + 1""",
+            nativeQuery = true)
+    void acquire(@Param("hash") String hash, @Param("content") byte[] content, @Param("sizeBytes") int sizeBytes);
+
+    @Modifying
+    @Query(value = "update source_blobs set ref_count = ref_count - 1 where hash = :hash", nativeQuery = true)
+    int release(@Param("hash") String hash);
+
+    @Modifying
+    @Query(value = "delete from source_blobs where hash = :hash and ref_count <= 0", nativeQuery = true)
+    int deleteIfUnreferenced(@Param("hash") String hash);
+}
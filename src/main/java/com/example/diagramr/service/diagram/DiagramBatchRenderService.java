@@ -0,0 +1,157 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.model.BatchRenderResult;
+import com.example.diagramr.service.render.RenderBatchExecutor;
+import com.example.diagramr.util.PlantUmlSourceHasher;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.sourceforge.plantuml.FileFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders many PlantUML sources in one request. Items render in parallel
+ * through {@link RenderBatchExecutor} using the normal
+ * {@link DiagramService} render path, so they share the render cache and
+ * pool with everything else. Each result is written as one NDJSON line as
+ * soon as it is ready; a failing item produces an error line and the rest
+ * of the batch carries on.
+ */
+@Service
+public class DiagramBatchRenderService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagramBatchRenderService.class);
+
+    private static final String START_UML = "@startuml";
+    private static final String END_UML = "@enduml";
+
+    private final DiagramService diagramService;
+    private final RenderBatchExecutor renderBatchExecutor;
+    private final ObjectMapper objectMapper;
+    private final int maxItems;
+
+    public DiagramBatchRenderService(
+            DiagramService diagramService,
+            RenderBatchExecutor renderBatchExecutor,
+            ObjectMapper objectMapper,
+            @Value("${diagramr.render.batch.max-items:500}") int maxItems) {
+        this.diagramService = diagramService;
+        this.renderBatchExecutor = renderBatchExecutor;
+        this.objectMapper = objectMapper;
+        this.maxItems = maxItems;
+    }
+
+    public record BatchItem(int index, String id, String code) {
+    }
+
+    /**
+     * Items from a JSON array whose elements are either source strings or
+     * objects with {@code code} and an optional {@code id}.
+     */
+    public List<BatchItem> parseJson(String body) {
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(body);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Request body is not valid JSON: " + e.getOriginalMessage());
+        }
+        if (root == null || !root.isArray()) {
+            throw new IllegalArgumentException("Expected a JSON array of PlantUML sources.");
+        }
+
+        List<BatchItem> items = new ArrayList<>();
+        for (JsonNode element : root) {
+            int index = items.size();
+            if (element.isTextual()) {
+                items.add(new BatchItem(index, null, element.asText()));
+            } else if (element.isObject() && element.path("code").isTextual()) {
+                JsonNode id = element.get("id");
+                items.add(new BatchItem(index, id == null || id.isNull() ? null : id.asText(),
+                        element.get("code").asText()));
+            } else {
+                throw new IllegalArgumentException(
+                        "Item " + index + " must be a string or an object with a \"code\" string.");
+            }
+        }
+        return checkSize(items);
+    }
+
+    /**
+     * Items from a plain-text body holding several {@code @startuml ... @enduml}
+     * blocks. Text outside the blocks is ignored.
+     */
+    public List<BatchItem> parseBlocks(String body) {
+        List<BatchItem> items = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            int start = body.indexOf(START_UML, from);
+            if (start < 0) {
+                break;
+            }
+            int end = body.indexOf(END_UML, start);
+            if (end < 0) {
+                throw new IllegalArgumentException("Block " + items.size() + " has no closing " + END_UML + ".");
+            }
+            from = end + END_UML.length();
+            items.add(new BatchItem(items.size(), null, body.substring(start, from)));
+        }
+        return checkSize(items);
+    }
+
+    public void renderBatch(List<BatchItem> items, FileFormat format, OutputStream out)
+            throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        int rendered = renderBatchExecutor.forEachCompleted(
+                items.iterator(),
+                item -> render(item, format),
+                (item, result, error) -> {
+                    if (error != null) {
+                        result = BatchRenderResult.builder()
+                                .index(item.index())
+                                .id(item.id())
+                                .format(format.name().toLowerCase())
+                                .error(error.getMessage() != null ? error.getMessage()
+                                        : error.getClass().getSimpleName())
+                                .build();
+                    }
+                    out.write(objectMapper.writeValueAsBytes(result));
+                    out.write('\n');
+                    out.flush();
+                });
+        logger.info("Rendered batch of {} {} diagrams in {} ms", rendered, format,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private BatchRenderResult render(BatchItem item, FileFormat format) throws Exception {
+        long started = System.nanoTime();
+        BatchRenderResult.BatchRenderResultBuilder result = BatchRenderResult.builder()
+                .index(item.index())
+                .id(item.id())
+                .sourceHash(PlantUmlSourceHasher.hash(item.code()))
+                .format(format.name().toLowerCase());
+        if (format == FileFormat.PNG) {
+            result.png(diagramService.renderDiagramAsPng(item.code()));
+        } else {
+            result.svg(diagramService.renderDiagramAsSvg(item.code()));
+        }
+        return result.elapsedMs((System.nanoTime() - started) / 1_000_000).build();
+    }
+
+    private List<BatchItem> checkSize(List<BatchItem> items) {
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("The batch contains no PlantUML sources.");
+        }
+        if (items.size() > maxItems) {
+            throw new IllegalArgumentException(
+                    "The batch has " + items.size() + " sources; at most " + maxItems + " are allowed.");
+        }
+        return items;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.model.DiagramSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Keyset position in the (updatedAt desc, id desc) ordering of a user's
+ * diagrams, encoded as an opaque URL-safe string.
+ */
+public record DiagramCursor(LocalDateTime updatedAt, Long id) {
+
+    public static DiagramCursor after(DiagramSummary last) {
+        return new DiagramCursor(last.getUpdatedAt(), last.getId());
+    }
+
+    public String encode() {
+        String raw = updatedAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static DiagramCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            return new DiagramCursor(LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.valueOf(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid page cursor", e);
+        }
+    }
+}
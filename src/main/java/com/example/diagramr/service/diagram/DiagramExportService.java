@@ -0,0 +1,166 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.exception.PlantUmlRenderingException;
+import com.example.diagramr.model.Diagram;
+import com.example.diagramr.model.DiagramSummary;
+import com.example.diagramr.model.DiagramSummaryPage;
+import com.example.diagramr.model.DiagramVersion;
+import com.example.diagramr.service.render.RenderBatchExecutor;
+import net.sourceforge.plantuml.FileFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams a user's diagrams as a ZIP archive: the PlantUML source and the
+ * requested renders of each diagram, and optionally of every version.
+ * Diagrams are listed a page at a time and rendered in parallel through
+ * {@link RenderBatchExecutor}; entries are written as each diagram finishes,
+ * so the first bytes go out immediately and memory stays bounded by the
+ * batch window rather than the number of diagrams.
+ */
+@Service
+public class DiagramExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagramExportService.class);
+
+    private static final int PAGE_SIZE = 200;
+
+    private final DiagramService diagramService;
+    private final RenderBatchExecutor renderBatchExecutor;
+
+    public DiagramExportService(DiagramService diagramService, RenderBatchExecutor renderBatchExecutor) {
+        this.diagramService = diagramService;
+        this.renderBatchExecutor = renderBatchExecutor;
+    }
+
+    public void exportUserDiagrams(Long userId, Set<FileFormat> formats, boolean includeVersions, OutputStream out)
+            throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        int exported = renderBatchExecutor.forEachCompleted(
+                new SummaryIterator(userId),
+                summary -> entries(summary, userId, formats, includeVersions),
+                (summary, entries, error) -> {
+                    if (error != null) {
+                        logger.warn("Could not export diagram id {}", summary.getId(), error);
+                        entries = List.of(textEntry(folder(summary) + "export-error.txt", error));
+                    }
+                    for (ExportEntry entry : entries) {
+                        write(zip, entry);
+                    }
+                });
+        zip.finish();
+        logger.info("Exported {} diagrams for user id {} in {} ms", exported, userId,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Builds every entry of one diagram. Runs on a batch thread; a render
+     * failure becomes an error entry next to the source instead of aborting
+     * the diagram. A rejection by the full render queue propagates, so that
+     * {@link RenderBatchExecutor} retries the diagram after a pause.
+     */
+    private List<ExportEntry> entries(DiagramSummary summary, Long userId, Set<FileFormat> formats,
+            boolean includeVersions) {
+        Optional<Diagram> diagramOpt = diagramService.getUserDiagram(summary.getId(), userId);
+        if (diagramOpt.isEmpty()) {
+            // Deleted since the page was listed
+            return List.of();
+        }
+
+        String folder = folder(summary);
+        List<ExportEntry> entries = new ArrayList<>();
+        addSource(entries, folder + "diagram", diagramOpt.get().getPlantUmlCode(), formats);
+        if (includeVersions) {
+            for (DiagramVersion version : diagramService.getDiagramVersions(summary.getId())) {
+                addSource(entries, folder + "versions/v" + version.getVersionNumber(), version.getPlantUmlCode(),
+                        formats);
+            }
+        }
+        return entries;
+    }
+
+    private void addSource(List<ExportEntry> entries, String basePath, String code, Set<FileFormat> formats) {
+        entries.add(new ExportEntry(basePath + ".puml", new ByteArrayResource(code.getBytes(StandardCharsets.UTF_8))));
+        for (FileFormat format : formats) {
+            String path = basePath + format.getFileSuffix();
+            try {
+                entries.add(new ExportEntry(path, diagramService.getDiagramArtifact(code, format)));
+            } catch (PlantUmlRenderingException | IllegalArgumentException e) {
+                // A full render queue is not caught here, so the batch executor retries the whole diagram
+                logger.debug("Could not render {} for export", path, e);
+                entries.add(textEntry(path + ".error.txt", e));
+            }
+        }
+    }
+
+    private static void write(ZipOutputStream zip, ExportEntry entry) throws IOException {
+        zip.putNextEntry(new ZipEntry(entry.path()));
+        try (InputStream in = entry.content().getInputStream()) {
+            in.transferTo(zip);
+        }
+        zip.closeEntry();
+    }
+
+    private static ExportEntry textEntry(String path, Exception error) {
+        String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        return new ExportEntry(path, new ByteArrayResource(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String folder(DiagramSummary summary) {
+        return summary.getId() + "-" + summary.getTitle().replaceAll("[^a-zA-Z0-9.-]", "_") + "/";
+    }
+
+    private record ExportEntry(String path, Resource content) {
+    }
+
+    /**
+     * Walks the user's diagram summaries with the keyset cursor, fetching
+     * the next page only when the current one is used up.
+     */
+    private class SummaryIterator implements Iterator<DiagramSummary> {
+        private final Long userId;
+        private Iterator<DiagramSummary> page = null;
+        private String cursor = null;
+        private boolean lastPage = false;
+
+        SummaryIterator(Long userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while ((page == null || !page.hasNext()) && !lastPage) {
+                DiagramSummaryPage next = diagramService.getUserDiagramSummaries(userId, cursor, PAGE_SIZE);
+                page = next.getItems().iterator();
+                cursor = next.getNextCursor();
+                lastPage = cursor == null;
+            }
+            return page != null && page.hasNext();
+        }
+
+        @Override
+        public DiagramSummary next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+    }
+}
@@ -3,17 +3,31 @@ package com.example.diagramr.service.diagram;
 import com.example.diagramr.model.Diagram;
 import com.example.diagramr.model.DiagramRequest;
 import com.example.diagramr.model.DiagramResponse;
+import com.example.diagramr.model.DiagramStreamEvent;
+import com.example.diagramr.model.DiagramSummaryPage;
 import com.example.diagramr.model.User;
 import com.example.diagramr.model.DiagramVersion;
+import com.example.diagramr.model.DiagramVersionSummary;
 import com.example.diagramr.exception.PlantUmlRenderingException;
-
+import com.example.diagramr.service.render.SyntaxCheckResult;
+import net.sourceforge.plantuml.FileFormat;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Page;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Optional;
 
 public interface DiagramService {
     DiagramResponse generateDiagram(DiagramRequest request);
 
-    DiagramResponse refineDiagram(DiagramRequest request);
+    DiagramResponse refineDiagram(DiagramRequest request, Long userId);
+
+    Flux<DiagramStreamEvent> streamGenerateDiagram(DiagramRequest request);
+
+    Flux<DiagramStreamEvent> streamRefineDiagram(DiagramRequest request, Long userId);
 
     Diagram saveDiagram(DiagramRequest request, String plantUmlCode, User user);
 
@@ -21,21 +35,61 @@ public interface DiagramService {
 
     List<DiagramVersion> getDiagramVersions(Long diagramId);
 
-    Optional<DiagramVersion> getDiagramVersionById(Long versionId);
+    Page<DiagramVersionSummary> getDiagramVersionSummaries(Long diagramId, int page, int pageSize);
+
+    /**
+     * The version if its diagram belongs to the user. Its source is not
+     * reconstructed.
+     */
+    Optional<DiagramVersion> getUserDiagramVersion(Long versionId, Long userId);
 
     Optional<DiagramVersion> getDiagramVersionByNumber(Long diagramId, Integer versionNumber);
 
-    boolean switchDiagramVersion(Long diagramId, Integer versionNumber, User user);
+    Optional<DiagramVersion> getUserDiagramVersionByNumber(Long diagramId, Integer versionNumber, Long userId);
 
-    boolean deleteDiagramVersion(Long versionId, User user);
+    boolean switchDiagramVersion(Long diagramId, Integer versionNumber, Long userId);
+
+    boolean deleteDiagramVersion(Long versionId, Long userId);
 
     List<Diagram> getUserDiagrams(User user);
 
-    Optional<Diagram> getDiagramById(Long id);
+    DiagramSummaryPage getUserDiagramSummaries(Long userId, String cursor, int pageSize);
+
+    Optional<Diagram> getUserDiagram(Long id, Long userId);
 
     void deleteDiagram(Long id);
 
     String renderDiagramAsSvg(String plantUmlCode) throws PlantUmlRenderingException;
 
     byte[] renderDiagramAsPng(String plantUmlCode) throws PlantUmlRenderingException;
+
+    /**
+     * Renders straight into {@code out} in any {@link FileFormat} PlantUML
+     * supports, without holding the whole image in memory.
+     */
+    void renderDiagram(String plantUmlCode, FileFormat format, OutputStream out)
+            throws PlantUmlRenderingException, IOException;
+
+    Resource getDiagramArtifact(String plantUmlCode, FileFormat format) throws PlantUmlRenderingException;
+
+    /**
+     * A render addressed by its source hash: from the render cache, the
+     * artifact store, or a source with that hash saved in one of the user's
+     * diagrams or versions. Empty if the hash is unknown to the user.
+     */
+    Optional<Resource> getRenderedArtifact(String sourceHash, FileFormat format, Long userId)
+            throws PlantUmlRenderingException;
+
+    /**
+     * The diagram's list-page thumbnail, if it has been generated yet.
+     */
+    Optional<Resource> getDiagramThumbnail(Diagram diagram);
+
+    /**
+     * The stored gzip-encoded variant of a rendered artifact, if the format
+     * has one.
+     */
+    Optional<Resource> getPrecompressedArtifact(String sourceHash, FileFormat format);
+
+    SyntaxCheckResult checkSyntax(String plantUmlCode);
 }
\ No newline at end of file
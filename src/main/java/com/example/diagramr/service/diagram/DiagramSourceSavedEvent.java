@@ -0,0 +1,9 @@
+package com.example.diagramr.service.diagram;
+
+/**
+ * Published when a diagram's current PlantUML source changes: a new diagram
+ * or version is saved, or another version becomes current. Listeners run
+ * after the surrounding transaction commits.
+ */
+public record DiagramSourceSavedEvent(Long diagramId, String plantUmlCode) {
+}
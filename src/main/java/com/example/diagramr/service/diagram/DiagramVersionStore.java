@@ -0,0 +1,190 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.model.DiagramVersion;
+import com.example.diagramr.model.VersionStorageKind;
+import com.example.diagramr.repository.DiagramVersionRepository;
+import com.example.diagramr.util.LineDelta;
+import com.example.diagramr.util.PlantUmlSourceHasher;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Stores diagram versions as line deltas against the version they were
+ * derived from, with a full snapshot at least every
+ * {@code diagramr.versions.snapshot-interval} versions along a chain.
+ * Content is reconstructed only when a version is read, and reconstructed
+ * versions are cached by id since a version's content never changes.
+ * Snapshots reference a shared {@link SourceBlobStore} blob.
+ */
+@Component
+public class DiagramVersionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagramVersionStore.class);
+
+    private final DiagramVersionRepository diagramVersionRepository;
+    private final SourceBlobStore sourceBlobStore;
+    private final Cache<Long, String> reconstructed;
+    private final int snapshotInterval;
+    private final int maxDeltaEdits;
+
+    public DiagramVersionStore(
+            DiagramVersionRepository diagramVersionRepository,
+            SourceBlobStore sourceBlobStore,
+            @Value("${diagramr.versions.snapshot-interval:10}") int snapshotInterval,
+            @Value("${diagramr.versions.max-delta-edits:500}") int maxDeltaEdits,
+            @Value("${diagramr.versions.head-cache.max-bytes:16777216}") long maxCacheBytes,
+            MeterRegistry meterRegistry) {
+        this.diagramVersionRepository = diagramVersionRepository;
+        this.sourceBlobStore = sourceBlobStore;
+        this.snapshotInterval = snapshotInterval;
+        this.maxDeltaEdits = maxDeltaEdits;
+        this.reconstructed = Caffeine.newBuilder()
+                .maximumWeight(maxCacheBytes)
+                .weigher((Long id, String code) -> 64 + 2 * code.length())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, reconstructed, "diagram-version-head");
+    }
+
+    /**
+     * Sets the storage fields of a new version. It is stored as a delta
+     * against {@code base} unless there is no base, the chain is due for a
+     * snapshot, or the delta would not be smaller than the source.
+     */
+    public void prepare(DiagramVersion version, String plantUmlCode, DiagramVersion base) {
+        version.setPlantUmlCode(plantUmlCode);
+        if (base == null || base.getId() == null || depth(base) + 1 >= snapshotInterval) {
+            storeSnapshot(version, plantUmlCode);
+            return;
+        }
+        storeDelta(version, plantUmlCode, base, depth(base) + 1);
+    }
+
+    /**
+     * Returns the version with its reconstructed source filled in.
+     */
+    public DiagramVersion resolve(DiagramVersion version) {
+        version.setPlantUmlCode(content(version));
+        return version;
+    }
+
+    public String content(DiagramVersion version) {
+        if (version.getPlantUmlCode() != null) {
+            return version.getPlantUmlCode();
+        }
+        if (!isDelta(version)) {
+            return snapshotCode(version);
+        }
+        String cached = version.getId() != null ? reconstructed.getIfPresent(version.getId()) : null;
+        if (cached != null) {
+            return cached;
+        }
+
+        Deque<DiagramVersion> deltas = new ArrayDeque<>();
+        DiagramVersion current = version;
+        String code;
+        while (true) {
+            if (!isDelta(current)) {
+                code = snapshotCode(current);
+                break;
+            }
+            deltas.push(current);
+            String cachedBase = reconstructed.getIfPresent(current.getBaseVersionId());
+            if (cachedBase != null) {
+                code = cachedBase;
+                break;
+            }
+            Long baseId = current.getBaseVersionId();
+            current = diagramVersionRepository.findById(baseId)
+                    .orElseThrow(() -> new IllegalStateException("Missing base version " + baseId));
+        }
+
+        logger.debug("Reconstructing version id {} from {} delta(s)", version.getId(), deltas.size());
+        while (!deltas.isEmpty()) {
+            DiagramVersion delta = deltas.pop();
+            code = LineDelta.apply(code, delta.getDelta());
+            if (delta.getId() != null) {
+                reconstructed.put(delta.getId(), code);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Re-encodes the versions stored as deltas against {@code removed} so
+     * that it can be deleted: against its own base if it was a delta, or as
+     * snapshots if it was one.
+     */
+    public void rebaseDependents(DiagramVersion removed) {
+        List<DiagramVersion> dependents = diagramVersionRepository.findByBaseVersionId(removed.getId());
+        if (dependents.isEmpty()) {
+            return;
+        }
+        DiagramVersion newBase = isDelta(removed)
+                ? diagramVersionRepository.findById(removed.getBaseVersionId()).orElse(null)
+                : null;
+        for (DiagramVersion dependent : dependents) {
+            String code = content(dependent);
+            if (newBase == null) {
+                storeSnapshot(dependent, code);
+            } else {
+                storeDelta(dependent, code, newBase, depth(removed));
+            }
+            diagramVersionRepository.save(dependent);
+        }
+        logger.info("Rebased {} version(s) that depended on version id {}", dependents.size(), removed.getId());
+    }
+
+    public void evict(Long versionId) {
+        reconstructed.invalidate(versionId);
+    }
+
+    private void storeDelta(DiagramVersion version, String plantUmlCode, DiagramVersion base, int depth) {
+        String delta = LineDelta.diff(content(base), plantUmlCode, maxDeltaEdits);
+        if (delta == null || delta.length() >= plantUmlCode.length()) {
+            storeSnapshot(version, plantUmlCode);
+            return;
+        }
+        version.setStorageKind(VersionStorageKind.DELTA);
+        version.setStoredCode(null);
+        version.setDelta(delta);
+        version.setBaseVersionId(base.getId());
+        version.setChainDepth(depth);
+    }
+
+    private void storeSnapshot(DiagramVersion version, String plantUmlCode) {
+        version.setStorageKind(VersionStorageKind.SNAPSHOT);
+        if (plantUmlCode.equals(PlantUmlSourceHasher.normalize(plantUmlCode))) {
+            version.setSource(sourceBlobStore.acquire(plantUmlCode));
+            version.setStoredCode(null);
+        } else {
+            // Blobs hold normalized source, and deltas may already be based on this exact text
+            version.setStoredCode(plantUmlCode);
+        }
+        version.setDelta(null);
+        version.setBaseVersionId(null);
+        version.setChainDepth(0);
+    }
+
+    private static String snapshotCode(DiagramVersion version) {
+        return version.getSource() != null ? version.getSource().getContent() : version.getStoredCode();
+    }
+
+    private static boolean isDelta(DiagramVersion version) {
+        return version.getStorageKind() == VersionStorageKind.DELTA;
+    }
+
+    private static int depth(DiagramVersion version) {
+        return version.getChainDepth() != null ? version.getChainDepth() : 0;
+    }
+}
@@ -3,78 +3,114 @@ package com.example.diagramr.service.diagram;
 import com.example.diagramr.model.Diagram;
 import com.example.diagramr.model.DiagramRequest;
 import com.example.diagramr.model.DiagramResponse;
+import com.example.diagramr.model.DiagramStreamEvent;
+import com.example.diagramr.model.DiagramSummary;
+import com.example.diagramr.model.DiagramSummaryPage;
 import com.example.diagramr.model.User;
 import com.example.diagramr.model.DiagramVersion;
+import com.example.diagramr.model.DiagramVersionSummary;
 import com.example.diagramr.repository.DiagramRepository;
 import com.example.diagramr.repository.DiagramVersionRepository;
+import com.example.diagramr.service.llm.LlmResponseCache;
 import com.example.diagramr.service.llm.LlmService;
+import com.example.diagramr.service.refine.RefineSession;
+import com.example.diagramr.service.refine.RefineSessionStore;
+import com.example.diagramr.service.render.PlantUmlRenderer;
+import com.example.diagramr.service.render.RenderArtifactStore;
+import com.example.diagramr.service.render.RenderResult;
+import com.example.diagramr.service.render.SyntaxCheckResult;
+import com.example.diagramr.service.render.ThumbnailWorker;
+import com.example.diagramr.util.PlantUmlSourceHasher;
 import com.example.diagramr.util.PlantUmlValidator;
 import com.example.diagramr.exception.PlantUmlRenderingException;
-import net.sourceforge.plantuml.SourceStringReader;
-import net.sourceforge.plantuml.FileFormatOption;
+import com.example.diagramr.exception.RenderRejectedException;
 import net.sourceforge.plantuml.FileFormat;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Service
 public class PlantUmlDiagramService implements DiagramService {
 
     private final LlmService llmService;
+    private final LlmResponseCache llmResponseCache;
     private final DiagramRepository diagramRepository;
     private final DiagramVersionRepository diagramVersionRepository;
     private final PlantUmlValidator plantUmlValidator;
+    private final PlantUmlRenderer plantUmlRenderer;
+    private final RenderArtifactStore renderArtifactStore;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RefineSessionStore refineSessionStore;
+    private final DiagramVersionStore diagramVersionStore;
+    private final SourceBlobStore sourceBlobStore;
+    private final ThumbnailWorker thumbnailWorker;
     private static final Logger logger = LoggerFactory.getLogger(PlantUmlDiagramService.class);
+    private static final String END_UML = "@enduml";
+    private static final String GENERATE_SYNTAX_HINT = ". Please refine your prompt.";
+    private static final String REFINE_SYNTAX_HINT = ". Please refine your feedback or the code.";
 
     public PlantUmlDiagramService(
             LlmService llmService,
+            LlmResponseCache llmResponseCache,
             DiagramRepository diagramRepository,
             DiagramVersionRepository diagramVersionRepository,
-            PlantUmlValidator plantUmlValidator) {
+            PlantUmlValidator plantUmlValidator,
+            PlantUmlRenderer plantUmlRenderer,
+            RenderArtifactStore renderArtifactStore,
+            ApplicationEventPublisher eventPublisher,
+            RefineSessionStore refineSessionStore,
+            DiagramVersionStore diagramVersionStore,
+            SourceBlobStore sourceBlobStore,
+            ThumbnailWorker thumbnailWorker) {
         this.llmService = llmService;
+        this.llmResponseCache = llmResponseCache;
         this.diagramRepository = diagramRepository;
         this.diagramVersionRepository = diagramVersionRepository;
         this.plantUmlValidator = plantUmlValidator;
+        this.plantUmlRenderer = plantUmlRenderer;
+        this.renderArtifactStore = renderArtifactStore;
+        this.eventPublisher = eventPublisher;
+        this.refineSessionStore = refineSessionStore;
+        this.diagramVersionStore = diagramVersionStore;
+        this.sourceBlobStore = sourceBlobStore;
+        this.thumbnailWorker = thumbnailWorker;
     }
 
     @Override
     public DiagramResponse generateDiagram(DiagramRequest request) {
         String plantUmlCode = null;
         try {
-            plantUmlCode = llmService.generatePlantUml(request.getPrompt());
-            logger.info("Generated PlantUML code:\n{}", plantUmlCode);
-
-            boolean isValidSyntax = plantUmlValidator.isValid(plantUmlCode);
-            String validationErrorMessage = null;
-            if (!isValidSyntax) {
-                validationErrorMessage = plantUmlValidator.getErrorMessage(plantUmlCode);
-                logger.warn("Generated PlantUML code failed initial validation: {}", validationErrorMessage);
+            String cacheKey = llmResponseCache.generationKey(request.getPrompt());
+            Optional<String> cachedCode = request.isFresh() ? Optional.empty() : llmResponseCache.get(cacheKey);
+            plantUmlCode = cachedCode.orElseGet(() -> llmService.generatePlantUml(request.getPrompt()));
+            logger.info("Generated PlantUML code (cached: {}):\n{}", cachedCode.isPresent(), plantUmlCode);
+
+            DiagramResponse response = validatedResponse(plantUmlCode, GENERATE_SYNTAX_HINT);
+            if (response.isValid() && cachedCode.isEmpty()) {
+                llmResponseCache.put(cacheKey, plantUmlCode);
             }
-
-            logger.info("Attempting to render generated PlantUML code as SVG.");
-            String svgImage = renderDiagramAsSvg(plantUmlCode);
-            logger.info("Successfully rendered SVG.");
-
-            return DiagramResponse.builder()
-                    .plantUmlCode(plantUmlCode)
-                    .svgImage(svgImage)
-                    .isValid(true)
-                    .build();
-        } catch (PlantUmlRenderingException e) {
-            logger.error("PlantUML rendering failed for generated code: {}", e.getMessage());
-            return DiagramResponse.builder()
-                    .plantUmlCode(plantUmlCode)
-                    .isValid(false)
-                    .errorMessage("PlantUML Syntax Error: " + e.getMessage() + ". Please refine your prompt.")
-                    .build();
+            return response;
+        } catch (RenderRejectedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error generating diagram", e);
             return DiagramResponse.builder()
@@ -86,46 +122,35 @@ public class PlantUmlDiagramService implements DiagramService {
     }
 
     @Override
-    public DiagramResponse refineDiagram(DiagramRequest request) {
+    public DiagramResponse refineDiagram(DiagramRequest request, Long userId) {
         String refinedCode = null;
         try {
-            if (request.getExistingCode() == null || request.getExistingCode().isEmpty()) {
+            RefineSession session = refineSession(request, userId);
+            String existingCode = existingCode(request, session);
+            if (existingCode == null || existingCode.isEmpty()) {
                 logger.warn("Refinement requested with no existing code.");
-                return DiagramResponse.builder()
-                        .isValid(false)
-                        .errorMessage("No existing code provided for refinement")
-                        .build();
+                return missingExistingCodeResponse();
             }
+            String sessionSummary = sessionSummary(session, existingCode);
             logger.info("Refining PlantUML code with feedback: {}", request.getFeedback());
-            logger.debug("Existing PlantUML code for refinement:\n{}", request.getExistingCode());
-
-            refinedCode = llmService.refinePlantUml(request.getExistingCode(), request.getFeedback());
-            logger.info("Refined PlantUML code:\n{}", refinedCode);
-
-            boolean isValidSyntax = plantUmlValidator.isValid(refinedCode);
-            String validationErrorMessage = null;
-            if (!isValidSyntax) {
-                validationErrorMessage = plantUmlValidator.getErrorMessage(refinedCode);
-                logger.warn("Refined PlantUML code failed initial validation: {}", validationErrorMessage);
+            logger.debug("Existing PlantUML code for refinement:\n{}", existingCode);
+
+            String cacheKey = llmResponseCache.refinementKey(existingCode, request.getFeedback(), sessionSummary);
+            Optional<String> cachedCode = request.isFresh() ? Optional.empty() : llmResponseCache.get(cacheKey);
+            refinedCode = cachedCode.orElseGet(
+                    () -> llmService.refinePlantUml(existingCode, request.getFeedback(), sessionSummary));
+            logger.info("Refined PlantUML code (cached: {}):\n{}", cachedCode.isPresent(), refinedCode);
+
+            DiagramResponse response = validatedResponse(refinedCode, REFINE_SYNTAX_HINT);
+            if (response.isValid()) {
+                if (cachedCode.isEmpty()) {
+                    llmResponseCache.put(cacheKey, refinedCode);
+                }
+                recordRefineTurn(session, request.getFeedback(), refinedCode);
             }
-
-            logger.info("Attempting to render refined PlantUML code as SVG.");
-            String svgImage = renderDiagramAsSvg(refinedCode);
-            logger.info("Successfully rendered refined SVG.");
-
-            return DiagramResponse.builder()
-                    .plantUmlCode(refinedCode)
-                    .svgImage(svgImage)
-                    .isValid(true)
-                    .build();
-        } catch (PlantUmlRenderingException e) {
-            logger.error("PlantUML rendering failed for refined code: {}", e.getMessage());
-            return DiagramResponse.builder()
-                    .plantUmlCode(refinedCode)
-                    .isValid(false)
-                    .errorMessage(
-                            "PlantUML Syntax Error: " + e.getMessage() + ". Please refine your feedback or the code.")
-                    .build();
+            return response;
+        } catch (RenderRejectedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error refining diagram", e);
             return DiagramResponse.builder()
@@ -136,43 +161,251 @@ public class PlantUmlDiagramService implements DiagramService {
         }
     }
 
+    @Override
+    public Flux<DiagramStreamEvent> streamGenerateDiagram(DiagramRequest request) {
+        logger.info("Streaming generation for prompt: {}", request.getPrompt());
+        return streamDiagram(() -> llmService.streamPlantUml(request.getPrompt()),
+                llmResponseCache.generationKey(request.getPrompt()), request.isFresh(),
+                GENERATE_SYNTAX_HINT, "Error generating diagram: ", code -> { });
+    }
+
+    @Override
+    public Flux<DiagramStreamEvent> streamRefineDiagram(DiagramRequest request, Long userId) {
+        RefineSession session = refineSession(request, userId);
+        String existingCode = existingCode(request, session);
+        if (existingCode == null || existingCode.isEmpty()) {
+            logger.warn("Streaming refinement requested with no existing code.");
+            return Flux.just(resultEvent(missingExistingCodeResponse()));
+        }
+        String sessionSummary = sessionSummary(session, existingCode);
+        logger.info("Streaming refinement with feedback: {}", request.getFeedback());
+        return streamDiagram(
+                () -> llmService.streamRefinedPlantUml(existingCode, request.getFeedback(), sessionSummary),
+                llmResponseCache.refinementKey(existingCode, request.getFeedback(), sessionSummary), request.isFresh(),
+                REFINE_SYNTAX_HINT, "Error refining diagram: ",
+                code -> recordRefineTurn(session, request.getFeedback(), code));
+    }
+
+    /**
+     * Relays LLM tokens as they arrive, renders a preview as soon as a
+     * complete {@code @startuml ... @enduml} block has been received, and
+     * finishes with the validated result. Rendering blocks, so everything
+     * downstream of the LLM publisher runs on the bounded elastic scheduler.
+     * A cached response is replayed as a single token.
+     */
+    private Flux<DiagramStreamEvent> streamDiagram(Supplier<Flux<String>> llmCall, String cacheKey, boolean fresh,
+            String syntaxErrorHint, String errorPrefix, Consumer<String> onValidCode) {
+        Optional<String> cachedCode = fresh ? Optional.empty() : llmResponseCache.get(cacheKey);
+        Flux<String> tokens = cachedCode.map(Flux::just).orElseGet(() -> Flux.defer(llmCall));
+        StringBuilder plantUmlCode = new StringBuilder();
+        return tokens
+                .publishOn(Schedulers.boundedElastic())
+                .concatMap(token -> {
+                    plantUmlCode.append(token);
+                    DiagramStreamEvent tokenEvent = DiagramStreamEvent.builder()
+                            .type(DiagramStreamEvent.TOKEN)
+                            .token(token)
+                            .build();
+
+                    String block = newlyCompletedBlock(plantUmlCode, token.length());
+                    if (block == null) {
+                        return Flux.just(tokenEvent);
+                    }
+                    RenderResult preview = plantUmlRenderer.render(block, FileFormat.SVG);
+                    if (!preview.isValid()) {
+                        logger.debug("Intermediate render failed: {}", preview.errorMessage());
+                        return Flux.just(tokenEvent);
+                    }
+                    persistRender(block);
+                    return Flux.just(tokenEvent, DiagramStreamEvent.builder()
+                            .type(DiagramStreamEvent.RENDER)
+                            .svgUrl(renderUrl(PlantUmlSourceHasher.hash(block)))
+                            .build());
+                })
+                .concatWith(Mono.fromCallable(() -> {
+                    logger.info("Streamed PlantUML code (cached: {}):\n{}", cachedCode.isPresent(), plantUmlCode);
+                    DiagramResponse response = validatedResponse(plantUmlCode.toString(), syntaxErrorHint);
+                    if (response.isValid()) {
+                        if (cachedCode.isEmpty()) {
+                            llmResponseCache.put(cacheKey, plantUmlCode.toString());
+                        }
+                        onValidCode.accept(plantUmlCode.toString());
+                    }
+                    return resultEvent(response);
+                }))
+                .onErrorResume(e -> {
+                    logger.error("Error while streaming diagram", e);
+                    return Flux.just(resultEvent(DiagramResponse.builder()
+                            .plantUmlCode(plantUmlCode.toString())
+                            .isValid(false)
+                            .errorMessage(errorPrefix + e.getMessage())
+                            .build()));
+                });
+    }
+
+    /**
+     * Returns the {@code @startuml ... @enduml} block closed by the latest
+     * token, or null. Only the tail of the buffer is searched so the check
+     * stays proportional to the token size.
+     */
+    private static String newlyCompletedBlock(StringBuilder buffer, int tokenLength) {
+        int searchFrom = Math.max(0, buffer.length() - tokenLength - END_UML.length() + 1);
+        int end = buffer.indexOf(END_UML, searchFrom);
+        if (end < 0) {
+            return null;
+        }
+        int start = buffer.lastIndexOf("@startuml", end);
+        return start < 0 ? null : buffer.substring(start, end + END_UML.length());
+    }
+
+    private DiagramResponse validatedResponse(String plantUmlCode, String syntaxErrorHint) {
+        RenderResult result = plantUmlValidator.validate(plantUmlCode);
+        if (!result.isValid()) {
+            logger.error("PlantUML rendering failed for LLM output: {}", result.errorMessage());
+            return DiagramResponse.builder()
+                    .plantUmlCode(plantUmlCode)
+                    .isValid(false)
+                    .errorMessage("PlantUML Syntax Error: " + result.errorMessage() + syntaxErrorHint)
+                    .build();
+        }
+        logger.info("Successfully rendered SVG.");
+
+        String renderId = PlantUmlSourceHasher.hash(plantUmlCode);
+        persistRender(plantUmlCode);
+        return DiagramResponse.builder()
+                .plantUmlCode(plantUmlCode)
+                .renderId(renderId)
+                .svgUrl(renderUrl(renderId))
+                .isValid(true)
+                .build();
+    }
+
+    /**
+     * Writes the SVG of an unsaved diagram to the artifact store before its
+     * hash URL is handed out, so the URL keeps working after the render
+     * cache evicts it. The source has already rendered, so this only copies
+     * the cached SVG to disk.
+     */
+    private void persistRender(String plantUmlCode) {
+        try {
+            renderArtifactStore.resolve(plantUmlCode, FileFormat.SVG);
+        } catch (PlantUmlRenderingException e) {
+            logger.warn("Could not store render {}: {}", PlantUmlSourceHasher.hash(plantUmlCode), e.getMessage());
+        }
+    }
+
+    private static String renderUrl(String sourceHash) {
+        return "/diagrams/renders/" + sourceHash + ".svg";
+    }
+
+    /**
+     * Refinements of a saved diagram run in a per-user session; without a
+     * diagram id they stay stateless.
+     */
+    private RefineSession refineSession(DiagramRequest request, Long userId) {
+        if (request.getDiagramId() == null || userId == null) {
+            return null;
+        }
+        return refineSessionStore.getOrCreate(userId, request.getDiagramId());
+    }
+
+    private static String existingCode(DiagramRequest request, RefineSession session) {
+        if (request.getExistingCode() != null && !request.getExistingCode().isEmpty()) {
+            return request.getExistingCode();
+        }
+        return session == null ? null : session.getLatestCode();
+    }
+
+    /**
+     * The session's summary of earlier changes, if they are in the code being
+     * refined. Refining an older version, or code from a turn that was never
+     * completed, starts the session over; otherwise the model would be told
+     * about changes the code does not contain.
+     */
+    private static String sessionSummary(RefineSession session, String existingCode) {
+        if (session == null) {
+            return null;
+        }
+        String latestCode = session.getLatestCode();
+        if (latestCode != null
+                && !PlantUmlSourceHasher.hash(latestCode).equals(PlantUmlSourceHasher.hash(existingCode))) {
+            logger.debug("Refining code other than the session's latest result; resetting the session");
+            session.reset();
+        }
+        return session.summary();
+    }
+
+    private static void recordRefineTurn(RefineSession session, String feedback, String refinedCode) {
+        if (session != null) {
+            session.recordTurn(feedback, refinedCode);
+        }
+    }
+
+    private static DiagramResponse missingExistingCodeResponse() {
+        return DiagramResponse.builder()
+                .isValid(false)
+                .errorMessage("No existing code provided for refinement")
+                .build();
+    }
+
+    private static DiagramStreamEvent resultEvent(DiagramResponse response) {
+        return DiagramStreamEvent.builder()
+                .type(DiagramStreamEvent.RESULT)
+                .response(response)
+                .build();
+    }
+
     @Override
     @Transactional
-    public Diagram saveDiagram(DiagramRequest request, String plantUmlCode, User user) {
+    public Diagram saveDiagram(DiagramRequest request, String submittedCode, User user) {
+        // Stored sources are normalized so that they match their blob and deltas apply exactly
+        String plantUmlCode = PlantUmlSourceHasher.normalize(submittedCode);
         Diagram diagram = new Diagram();
         diagram.setTitle(request.getTitle());
         diagram.setDescription(request.getDescription());
-        diagram.setPlantUmlCode(plantUmlCode);
+        sourceBlobStore.assign(diagram, plantUmlCode);
         diagram.setUser(user);
 
         Diagram savedDiagram = diagramRepository.save(diagram);
 
         DiagramVersion version = new DiagramVersion();
-        version.setPlantUmlCode(plantUmlCode);
-        version.setVersionNumber(1);
+        diagramVersionStore.prepare(version, plantUmlCode, null);
         version.setVersionLabel("Initial version");
-        version.setDiagram(savedDiagram);
 
         savedDiagram.addVersion(version);
+        diagramVersionRepository.save(version);
 
-        logger.info("Saving diagram titled '{}' for user {} with initial version", request.getTitle(),
-                user.getUsername());
-        return diagramRepository.save(savedDiagram);
+        logger.info("Saving diagram titled '{}' for user id {} with initial version", request.getTitle(),
+                user.getId());
+        Diagram result = diagramRepository.save(savedDiagram);
+        eventPublisher.publishEvent(new DiagramSourceSavedEvent(result.getId(), plantUmlCode));
+        return result;
     }
 
     @Override
     @Transactional
-    public DiagramVersion saveVersion(Diagram diagram, String plantUmlCode, String versionLabel, String versionNotes) {
+    public DiagramVersion saveVersion(Diagram diagram, String submittedCode, String versionLabel,
+            String versionNotes) {
+        String plantUmlCode = PlantUmlSourceHasher.normalize(submittedCode);
         DiagramVersion version = new DiagramVersion();
-        version.setPlantUmlCode(plantUmlCode);
+        DiagramVersion base = diagramVersionRepository
+                .findByDiagramAndVersionNumber(diagram, diagram.getCurrentVersionNumber())
+                .orElse(null);
+        diagramVersionStore.prepare(version, plantUmlCode, base);
         version.setVersionLabel(versionLabel);
         version.setVersionNotes(versionNotes);
 
-        diagram.setPlantUmlCode(plantUmlCode);
+        sourceBlobStore.assign(diagram, plantUmlCode);
 
+        if (diagram.getLastVersionNumber() == null) {
+            // Diagram saved before the counter existed and not yet backfilled
+            diagram.setLastVersionNumber(diagramVersionRepository.findMaxVersionNumber(diagram.getId()));
+        }
         diagram.addVersion(version);
 
+        diagramVersionRepository.save(version);
         diagramRepository.save(diagram);
+        eventPublisher.publishEvent(new DiagramSourceSavedEvent(diagram.getId(), plantUmlCode));
 
         logger.info("Created new version {} for diagram id {} with label: {}",
                 version.getVersionNumber(), diagram.getId(), versionLabel);
@@ -191,47 +424,55 @@ public class PlantUmlDiagramService implements DiagramService {
 
         Diagram diagram = diagramOpt.get();
         logger.info("Fetching versions for diagram id {}", diagramId);
-        return diagramVersionRepository.findByDiagramOrderByVersionNumberDesc(diagram);
+        List<DiagramVersion> versions = diagramVersionRepository.findByDiagramOrderByVersionNumberDesc(diagram);
+        versions.forEach(diagramVersionStore::resolve);
+        return versions;
     }
 
     @Override
     @Transactional(readOnly = true)
-    public Optional<DiagramVersion> getDiagramVersionById(Long versionId) {
-        logger.info("Fetching diagram version by id {}", versionId);
-        return diagramVersionRepository.findById(versionId);
+    public Page<DiagramVersionSummary> getDiagramVersionSummaries(Long diagramId, int page, int pageSize) {
+        logger.debug("Fetching version summaries for diagram id {} (page {}, size {})", diagramId, page, pageSize);
+        return diagramVersionRepository.findSummariesByDiagramId(diagramId,
+                PageRequest.of(Math.max(page, 0), pageSize));
     }
 
     @Override
     @Transactional(readOnly = true)
-    public Optional<DiagramVersion> getDiagramVersionByNumber(Long diagramId, Integer versionNumber) {
-        Optional<Diagram> diagramOpt = diagramRepository.findById(diagramId);
-        if (diagramOpt.isEmpty()) {
-            logger.warn("Attempt to get version {} for non-existent diagram id {}", versionNumber, diagramId);
-            return Optional.empty();
-        }
+    public Optional<DiagramVersion> getUserDiagramVersion(Long versionId, Long userId) {
+        logger.info("Fetching diagram version by id {} for user id {}", versionId, userId);
+        return diagramVersionRepository.findByIdAndDiagramUserId(versionId, userId);
+    }
 
-        Diagram diagram = diagramOpt.get();
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<DiagramVersion> getDiagramVersionByNumber(Long diagramId, Integer versionNumber) {
         logger.info("Fetching version {} for diagram id {}", versionNumber, diagramId);
-        return diagramVersionRepository.findByDiagramAndVersionNumber(diagram, versionNumber);
+        return diagramVersionRepository.findByDiagramIdAndVersionNumber(diagramId, versionNumber)
+                .map(diagramVersionStore::resolve);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<DiagramVersion> getUserDiagramVersionByNumber(Long diagramId, Integer versionNumber,
+            Long userId) {
+        logger.debug("Fetching version {} for diagram id {} and user id {}", versionNumber, diagramId, userId);
+        return diagramVersionRepository
+                .findByDiagramIdAndVersionNumberAndDiagramUserId(diagramId, versionNumber, userId)
+                .map(diagramVersionStore::resolve);
     }
 
     @Override
     @Transactional
-    public boolean switchDiagramVersion(Long diagramId, Integer versionNumber, User user) {
-        Optional<Diagram> diagramOpt = diagramRepository.findById(diagramId);
+    public boolean switchDiagramVersion(Long diagramId, Integer versionNumber, Long userId) {
+        Optional<Diagram> diagramOpt = diagramRepository.findByIdAndUserId(diagramId, userId);
         if (diagramOpt.isEmpty()) {
-            logger.warn("Attempt to switch version for non-existent diagram id {}", diagramId);
+            logger.warn("Attempt to switch version for diagram id {} not owned by user id {}", diagramId, userId);
             return false;
         }
 
         Diagram diagram = diagramOpt.get();
 
-        if (!diagram.getUser().getId().equals(user.getId())) {
-            logger.warn("User {} attempted to switch version for diagram {} owned by user {}",
-                    user.getUsername(), diagramId, diagram.getUser().getUsername());
-            return false;
-        }
-
         Optional<DiagramVersion> versionOpt = diagramVersionRepository.findByDiagramAndVersionNumber(diagram,
                 versionNumber);
         if (versionOpt.isEmpty()) {
@@ -241,9 +482,11 @@ public class PlantUmlDiagramService implements DiagramService {
 
         DiagramVersion version = versionOpt.get();
 
-        diagram.setPlantUmlCode(version.getPlantUmlCode());
+        String code = diagramVersionStore.content(version);
+        sourceBlobStore.assign(diagram, code);
         diagram.setCurrentVersionNumber(versionNumber);
         diagramRepository.save(diagram);
+        eventPublisher.publishEvent(new DiagramSourceSavedEvent(diagramId, code));
 
         logger.info("Switched diagram id {} to version {}", diagramId, versionNumber);
         return true;
@@ -251,23 +494,17 @@ public class PlantUmlDiagramService implements DiagramService {
 
     @Override
     @Transactional
-    public boolean deleteDiagramVersion(Long versionId, User user) {
-        Optional<DiagramVersion> versionOpt = diagramVersionRepository.findById(versionId);
+    public boolean deleteDiagramVersion(Long versionId, Long userId) {
+        Optional<DiagramVersion> versionOpt = diagramVersionRepository.findByIdAndDiagramUserId(versionId, userId);
 
         if (versionOpt.isEmpty()) {
-            logger.warn("Attempt to delete non-existent diagram version id {}", versionId);
+            logger.warn("Attempt to delete diagram version id {} not owned by user id {}", versionId, userId);
             return false;
         }
 
         DiagramVersion version = versionOpt.get();
         Diagram diagram = version.getDiagram();
 
-        if (!diagram.getUser().getId().equals(user.getId())) {
-            logger.warn("User {} attempted to delete version {} for diagram {} owned by user {}",
-                    user.getUsername(), versionId, diagram.getId(), diagram.getUser().getUsername());
-            return false;
-        }
-
         long versionCount = diagramVersionRepository.countByDiagram(diagram);
         if (versionCount <= 1) {
             logger.warn("Attempt to delete the only version for diagram id {}", diagram.getId());
@@ -282,12 +519,19 @@ public class PlantUmlDiagramService implements DiagramService {
             if (newCurrentVersionOpt.isPresent()) {
                 DiagramVersion newCurrentVersion = newCurrentVersionOpt.get();
                 diagram.setCurrentVersionNumber(newCurrentVersion.getVersionNumber());
-                diagram.setPlantUmlCode(newCurrentVersion.getPlantUmlCode());
+                String code = diagramVersionStore.content(newCurrentVersion);
+                sourceBlobStore.assign(diagram, code);
                 diagramRepository.save(diagram);
+                eventPublisher.publishEvent(new DiagramSourceSavedEvent(diagram.getId(), code));
             }
         }
 
+        diagramVersionStore.rebaseDependents(version);
         diagramVersionRepository.delete(version);
+        if (version.getSource() != null) {
+            sourceBlobStore.release(version.getSource().getHash());
+        }
+        diagramVersionStore.evict(version.getId());
         logger.info("Deleted version {} for diagram id {}", version.getVersionNumber(), diagram.getId());
 
         return true;
@@ -299,94 +543,149 @@ public class PlantUmlDiagramService implements DiagramService {
         return diagramRepository.findByUserOrderByUpdatedAtDesc(user);
     }
 
+    /**
+     * One page of summaries in (updatedAt, id) descending order. Fetches one
+     * extra row to know whether another page follows.
+     */
     @Override
-    public Optional<Diagram> getDiagramById(Long id) {
-        logger.info("Fetching diagram by ID {}", id);
-        return diagramRepository.findById(id);
+    public DiagramSummaryPage getUserDiagramSummaries(Long userId, String cursor, int pageSize) {
+        Limit limit = Limit.of(pageSize + 1);
+        List<DiagramSummary> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = diagramRepository.findSummariesByUserId(userId, limit);
+        } else {
+            DiagramCursor after = DiagramCursor.decode(cursor);
+            rows = diagramRepository.findSummariesByUserIdAfter(userId, after.updatedAt(), after.id(), limit);
+        }
+
+        boolean hasMore = rows.size() > pageSize;
+        List<DiagramSummary> items = hasMore ? rows.subList(0, pageSize) : rows;
+        logger.debug("Fetched {} diagram summaries for user id {} (more: {})", items.size(), userId, hasMore);
+        return DiagramSummaryPage.builder()
+                .items(items)
+                .nextCursor(hasMore ? DiagramCursor.after(items.get(items.size() - 1)).encode() : null)
+                .build();
     }
 
+    /**
+     * The diagram if it belongs to the user, with its source, in one query.
+     */
     @Override
+    public Optional<Diagram> getUserDiagram(Long id, Long userId) {
+        logger.info("Fetching diagram by ID {} for user id {}", id, userId);
+        return diagramRepository.findByIdAndUserId(id, userId);
+    }
+
+    @Override
+    @Transactional
     public void deleteDiagram(Long id) {
         logger.info("Deleting diagram by ID {}", id);
-        diagramRepository.deleteById(id);
+        Optional<Diagram> diagramOpt = diagramRepository.findById(id);
+        if (diagramOpt.isEmpty()) {
+            return;
+        }
+        // One entry per reference held by the diagram and its snapshots
+        List<String> blobHashes = new ArrayList<>(diagramVersionRepository.findSourceHashesByDiagramId(id));
+        if (diagramOpt.get().getSource() != null) {
+            blobHashes.add(diagramOpt.get().getSource().getHash());
+        }
+        diagramRepository.delete(diagramOpt.get());
+        sourceBlobStore.releaseAll(blobHashes);
+        refineSessionStore.invalidateDiagram(id);
     }
 
     @Override
     public String renderDiagramAsSvg(String plantUmlCode) throws PlantUmlRenderingException {
-        if (plantUmlCode == null || !plantUmlCode.trim().startsWith("@startuml")
-                || !plantUmlCode.trim().endsWith("@enduml")) {
+        if (!PlantUmlRenderer.hasDelimiters(plantUmlCode)) {
             logger.error("Invalid PlantUML code passed to renderDiagramAsSvg (missing @startuml/@enduml):\n{}",
                     plantUmlCode);
             throw new IllegalArgumentException(
                     "Invalid PlantUML code: Must start with @startuml and end with @enduml.");
         }
-        logger.debug("Rendering PlantUML to SVG:\n{}", plantUmlCode);
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            SourceStringReader reader = new SourceStringReader(plantUmlCode);
-            String description = reader.generateImage(outputStream, new FileFormatOption(FileFormat.SVG));
-            logger.info("PlantUML generateImage description: {}", description);
-
-            if (description == null || description.contains("Error")) {
-                logger.error("PlantUML reported an error during rendering: {}", description);
-                throw new PlantUmlRenderingException(
-                        "PlantUML syntax error: " + (description != null ? description : "Unknown error"));
-            }
-
-            String svg = new String(outputStream.toByteArray(), StandardCharsets.UTF_8).trim(); // Trim whitespace
-            if (!(svg.startsWith("<svg") || (svg.startsWith("<?xml") && svg.contains("<svg")))) {
-                logger.error("PlantUML output did not seem to be valid SVG. Output:\n{}", svg);
-                throw new PlantUmlRenderingException(
-                        "Failed to render valid SVG content. PlantUML output might be incomplete or invalid.");
-            }
-            logger.debug("Rendered SVG content (first 100 chars): {}", svg.substring(0, Math.min(svg.length(), 100)));
-            return svg;
-        } catch (IOException e) {
-            logger.error("IO error while rendering diagram as SVG", e);
-            throw new PlantUmlRenderingException("IO error while rendering diagram as SVG", e);
-        } catch (PlantUmlRenderingException e) {
-            throw e;
-        } catch (Exception e) {
-            logger.error("Unexpected error during PlantUML rendering", e);
-            throw new PlantUmlRenderingException("Unexpected error rendering diagram as SVG: " + e.getMessage(), e);
-        }
+        RenderResult result = plantUmlRenderer.render(plantUmlCode, FileFormat.SVG);
+        result.orThrow();
+        return result.asText();
     }
 
     @Override
     public byte[] renderDiagramAsPng(String plantUmlCode) throws PlantUmlRenderingException {
-        if (plantUmlCode == null || !plantUmlCode.trim().startsWith("@startuml")
-                || !plantUmlCode.trim().endsWith("@enduml")) {
+        if (!PlantUmlRenderer.hasDelimiters(plantUmlCode)) {
             logger.error("Invalid PlantUML code passed to renderDiagramAsPng (missing @startuml/@enduml):\n{}",
                     plantUmlCode);
             throw new IllegalArgumentException(
                     "Invalid PlantUML code: Must start with @startuml and end with @enduml.");
         }
-        logger.debug("Rendering PlantUML to PNG:\n{}", plantUmlCode);
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            SourceStringReader reader = new SourceStringReader(plantUmlCode);
-            String description = reader.generateImage(outputStream, new FileFormatOption(FileFormat.PNG));
-            logger.info("PlantUML generateImage (PNG) description: {}", description);
-
-            if (description == null || description.contains("Error")) {
-                logger.error("PlantUML reported an error during PNG rendering: {}", description);
-                throw new PlantUmlRenderingException(
-                        "PlantUML syntax error: " + (description != null ? description : "Unknown error"));
-            }
+        return plantUmlRenderer.render(plantUmlCode, FileFormat.PNG).orThrow();
+    }
 
-            byte[] pngData = outputStream.toByteArray();
-            if (pngData == null || pngData.length == 0) {
-                logger.error("PlantUML PNG output was empty.");
-                throw new PlantUmlRenderingException("Failed to render PNG content. PlantUML output was empty.");
-            }
-            logger.debug("Rendered PNG data length: {}", pngData.length);
-            return pngData;
-        } catch (IOException e) {
-            logger.error("IO error while rendering diagram as PNG", e);
-            throw new PlantUmlRenderingException("IO error while rendering diagram as PNG", e);
-        } catch (PlantUmlRenderingException e) {
-            throw e; // Re-throw specific exception
-        } catch (Exception e) {
-            logger.error("Unexpected error during PlantUML PNG rendering", e);
-            throw new PlantUmlRenderingException("Unexpected error rendering diagram as PNG: " + e.getMessage(), e);
+    @Override
+    public void renderDiagram(String plantUmlCode, FileFormat format, OutputStream out)
+            throws PlantUmlRenderingException, IOException {
+        if (!PlantUmlRenderer.hasDelimiters(plantUmlCode)) {
+            logger.error("Invalid PlantUML code passed to renderDiagram (missing @startuml/@enduml):\n{}",
+                    plantUmlCode);
+            throw new IllegalArgumentException(
+                    "Invalid PlantUML code: Must start with @startuml and end with @enduml.");
         }
+        plantUmlRenderer.stream(plantUmlCode, format, out);
+    }
+
+    @Override
+    public Resource getDiagramArtifact(String plantUmlCode, FileFormat format) throws PlantUmlRenderingException {
+        if (!PlantUmlRenderer.hasDelimiters(plantUmlCode)) {
+            logger.error("Invalid PlantUML code passed to getDiagramArtifact (missing @startuml/@enduml):\n{}",
+                    plantUmlCode);
+            throw new IllegalArgumentException(
+                    "Invalid PlantUML code: Must start with @startuml and end with @enduml.");
+        }
+        return renderArtifactStore.resolve(plantUmlCode, format);
+    }
+
+    @Override
+    public Optional<Resource> getRenderedArtifact(String sourceHash, FileFormat format, Long userId)
+            throws PlantUmlRenderingException {
+        Optional<RenderResult> cached = plantUmlRenderer.cached(sourceHash, format);
+        if (cached.isPresent()) {
+            return Optional.of(new ByteArrayResource(cached.get().output()));
+        }
+        Optional<Resource> stored = renderArtifactStore.find(sourceHash, format);
+        if (stored.isPresent()) {
+            return stored;
+        }
+        if (!diagramRepository.existsByUserIdAndSourceHash(userId, sourceHash)
+                && !diagramVersionRepository.existsByUserIdAndSourceHash(userId, sourceHash)) {
+            logger.debug("No render for hash {} and no saved source of user id {}", sourceHash, userId);
+            return Optional.empty();
+        }
+        Optional<String> source = sourceBlobStore.content(sourceHash);
+        if (source.isEmpty()) {
+            logger.debug("No render or saved source for hash {}", sourceHash);
+            return Optional.empty();
+        }
+        return Optional.of(renderArtifactStore.resolve(source.get(), format));
+    }
+
+    @Override
+    public Optional<Resource> getPrecompressedArtifact(String sourceHash, FileFormat format) {
+        return renderArtifactStore.findPrecompressed(sourceHash, format);
+    }
+
+    /**
+     * The stored thumbnail for the diagram's current source. A missing one
+     * is queued for the background worker rather than rendered here, so list
+     * views never wait on PlantUML.
+     */
+    @Override
+    public Optional<Resource> getDiagramThumbnail(Diagram diagram) {
+        Optional<Resource> thumbnail = renderArtifactStore.findThumbnail(diagram.getSourceHash());
+        if (thumbnail.isEmpty()) {
+            thumbnailWorker.submit(diagram.getId(), diagram.getPlantUmlCode());
+        }
+        return thumbnail;
+    }
+
+    @Override
+    public SyntaxCheckResult checkSyntax(String plantUmlCode) {
+        return plantUmlValidator.checkSyntax(plantUmlCode);
     }
-}
\ No newline at end of file
+}
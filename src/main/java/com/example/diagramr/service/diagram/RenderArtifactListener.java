@@ -0,0 +1,80 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.service.render.RenderArtifactStore;
+import com.example.diagramr.service.render.ThumbnailWorker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-generates the stored SVG and PNG of every saved source. The renders
+ * run on a small background pool so that saving never waits on PlantUML.
+ * Its queue is bounded and sources beyond it are dropped, since a missing
+ * artifact is rendered on first read anyway.
+ */
+@Component
+public class RenderArtifactListener implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderArtifactListener.class);
+
+    private final RenderArtifactStore renderArtifactStore;
+    private final ThumbnailWorker thumbnailWorker;
+    private final ThreadPoolExecutor executor;
+    private final Counter droppedCounter;
+
+    public RenderArtifactListener(
+            RenderArtifactStore renderArtifactStore,
+            ThumbnailWorker thumbnailWorker,
+            @Value("${diagramr.artifacts.pregenerate.workers:1}") int workers,
+            @Value("${diagramr.artifacts.pregenerate.queue-capacity:100}") int queueCapacity,
+            MeterRegistry meterRegistry) {
+        this.renderArtifactStore = renderArtifactStore;
+        this.thumbnailWorker = thumbnailWorker;
+        this.executor = new ThreadPoolExecutor(
+                workers,
+                workers,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("artifact-pregenerate-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("diagramr.artifacts.pregenerate.pending", executor, e -> e.getQueue().size())
+                .description("Saved sources waiting for their artifacts to be pre-generated")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("diagramr.artifacts.pregenerate.dropped")
+                .description("Artifact pre-generations dropped because the queue was full")
+                .register(meterRegistry);
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onDiagramSourceSaved(DiagramSourceSavedEvent event) {
+        try {
+            executor.execute(() -> {
+                logger.info("Generating render artifacts for diagram id {}", event.diagramId());
+                renderArtifactStore.generate(event.plantUmlCode());
+            });
+        } catch (RejectedExecutionException e) {
+            droppedCounter.increment();
+            logger.warn("Artifact queue is full; diagram id {} will be rendered on first read", event.diagramId());
+        }
+        thumbnailWorker.submit(event.diagramId(), event.plantUmlCode());
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.repository.DiagramRepository;
+import com.example.diagramr.repository.DiagramVersionRepository;
+import com.example.diagramr.util.PlantUmlSourceHasher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Migrates diagram sources to {@link SourceBlobStore}. Diagrams and
+ * snapshots saved before blobs keep their inline source and stay readable,
+ * so the only required step is relaxing the NOT NULL constraint that
+ * ddl-auto leaves on diagrams.plant_uml_code. With
+ * {@code diagramr.storage.blobs.migrate-existing=true}, inline sources are
+ * moved into blobs after startup, one row per transaction.
+ */
+@Component
+public class SourceBlobMigration implements InitializingBean, ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceBlobMigration.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DiagramRepository diagramRepository;
+    private final DiagramVersionRepository diagramVersionRepository;
+    private final SourceBlobStore sourceBlobStore;
+    private final boolean migrateExisting;
+
+    public SourceBlobMigration(
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            DiagramRepository diagramRepository,
+            DiagramVersionRepository diagramVersionRepository,
+            SourceBlobStore sourceBlobStore,
+            @Value("${diagramr.storage.blobs.migrate-existing:false}") boolean migrateExisting) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.diagramRepository = diagramRepository;
+        this.diagramVersionRepository = diagramVersionRepository;
+        this.sourceBlobStore = sourceBlobStore;
+        this.migrateExisting = migrateExisting;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            jdbcTemplate.execute("ALTER TABLE diagrams ALTER COLUMN plant_uml_code DROP NOT NULL");
+        } catch (DataAccessException e) {
+            logger.warn("Could not relax NOT NULL on diagrams.plant_uml_code: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!migrateExisting) {
+            return;
+        }
+        List<Long> diagramIds = diagramRepository.findIdsWithInlineSource();
+        logger.info("Moving the source of {} diagram(s) into blobs", diagramIds.size());
+        for (Long diagramId : diagramIds) {
+            migrate("diagram", diagramId, () -> diagramRepository.findById(diagramId)
+                    .ifPresent(diagram -> sourceBlobStore.assign(diagram, diagram.getStoredCode())));
+        }
+
+        List<Long> versionIds = diagramVersionRepository.findSnapshotIdsWithInlineSource();
+        logger.info("Moving the source of {} snapshot version(s) into blobs", versionIds.size());
+        for (Long versionId : versionIds) {
+            migrate("version", versionId, () -> diagramVersionRepository.findById(versionId).ifPresent(version -> {
+                String code = version.getStoredCode();
+                // Deltas are based on the exact inline text, so only already-normalized sources can move
+                if (code.equals(PlantUmlSourceHasher.normalize(code))) {
+                    version.setSource(sourceBlobStore.acquire(code));
+                    version.setStoredCode(null);
+                }
+            }));
+        }
+        logger.info("Source blob migration finished");
+    }
+
+    private void migrate(String kind, Long id, Runnable step) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> step.run());
+        } catch (RuntimeException e) {
+            logger.error("Failed to move the source of {} id {} into a blob", kind, id, e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.model.Diagram;
+import com.example.diagramr.model.PlantUmlSourceConverter;
+import com.example.diagramr.model.SourceBlob;
+import com.example.diagramr.repository.SourceBlobRepository;
+import com.example.diagramr.util.PlantUmlSourceHasher;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Content-addressed storage for diagram and snapshot sources. Identical
+ * sources, after {@link PlantUmlSourceHasher#normalize}, share one
+ * {@link SourceBlob}; every referencing row holds one reference, and a blob
+ * is deleted when its last reference is released. Must be called inside
+ * the transaction that writes the referencing row.
+ */
+@Component
+public class SourceBlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceBlobStore.class);
+
+    private final SourceBlobRepository sourceBlobRepository;
+    private final PlantUmlSourceConverter converter;
+    private final EntityManager entityManager;
+
+    public SourceBlobStore(SourceBlobRepository sourceBlobRepository, PlantUmlSourceConverter converter,
+            EntityManager entityManager) {
+        this.sourceBlobRepository = sourceBlobRepository;
+        this.converter = converter;
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Adds a reference to the blob for this source, creating it if needed,
+     * and returns a reference to it for the owning entity.
+     */
+    public SourceBlob acquire(String plantUmlCode) {
+        String content = PlantUmlSourceHasher.normalize(plantUmlCode);
+        String hash = PlantUmlSourceHasher.sha256Hex(content);
+        sourceBlobRepository.acquire(hash, converter.convertToDatabaseColumn(content),
+                content.getBytes(StandardCharsets.UTF_8).length);
+        return sourceBlobRepository.getReferenceById(hash);
+    }
+
+    public Optional<String> content(String hash) {
+        return sourceBlobRepository.findById(hash).map(SourceBlob::getContent);
+    }
+
+    /**
+     * Points the diagram at the blob for this source and releases the blob
+     * it referenced before.
+     */
+    public void assign(Diagram diagram, String plantUmlCode) {
+        SourceBlob previous = diagram.getSource();
+        SourceBlob blob = acquire(plantUmlCode);
+        diagram.setSource(blob);
+        diagram.setStoredCode(null);
+        if (previous != null) {
+            release(previous.getHash());
+        }
+    }
+
+    /**
+     * Drops one reference and deletes the blob if it was the last one. The
+     * persistence context is flushed first so that rows which stopped
+     * referencing the blob in this transaction no longer hold it in the
+     * database.
+     */
+    public void release(String hash) {
+        entityManager.flush();
+        sourceBlobRepository.release(hash);
+        if (sourceBlobRepository.deleteIfUnreferenced(hash) > 0) {
+            logger.debug("Deleted unreferenced source blob {}", hash);
+        }
+    }
+
+    public void releaseAll(Collection<String> hashes) {
+        hashes.forEach(this::release);
+    }
+}
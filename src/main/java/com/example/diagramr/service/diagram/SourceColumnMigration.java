@@ -0,0 +1,121 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.model.PlantUmlSourceConverter;
+import com.example.diagramr.util.PlantUmlSourceCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves the PlantUML source columns from TEXT to bytea. The conversion keeps
+ * the UTF-8 bytes as they are, which {@link PlantUmlSourceCodec} reads as
+ * legacy text, so no row has to be re-encoded by the application. The type
+ * change itself is not free: PostgreSQL rewrites the whole table while
+ * holding an ACCESS EXCLUSIVE lock, so on the first start after the upgrade
+ * every read and write of the table waits for it. For large tables, run the
+ * same ALTER in a maintenance window before deploying; startup then finds
+ * bytea and skips it. With
+ * {@code diagramr.storage.compression.recompress-existing=true}, rows are
+ * re-encoded in batches after startup in the currently configured format.
+ */
+@Component
+public class SourceColumnMigration implements InitializingBean, ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(SourceColumnMigration.class);
+
+    private static final List<String> TABLES = List.of("diagrams", "diagram_versions");
+    private static final int BATCH_SIZE = 200;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlantUmlSourceConverter converter;
+    private final boolean recompressExisting;
+
+    public SourceColumnMigration(
+            JdbcTemplate jdbcTemplate,
+            PlantUmlSourceConverter converter,
+            @Value("${diagramr.storage.compression.recompress-existing:false}") boolean recompressExisting) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.converter = converter;
+        this.recompressExisting = recompressExisting;
+    }
+
+    /**
+     * Runs before the web server starts; ddl-auto does not change column
+     * types, so older schemas still have TEXT here. Only a TEXT column is
+     * altered, so the table is rewritten at most once.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        for (String table : TABLES) {
+            try {
+                List<String> types = jdbcTemplate.queryForList(
+                        "SELECT data_type FROM information_schema.columns"
+                                + " WHERE table_name = ? AND column_name = 'plant_uml_code'",
+                        String.class, table);
+                if (types.contains("text")) {
+                    logger.warn("Converting {}.plant_uml_code from TEXT to bytea; this rewrites the table and "
+                            + "locks it until done", table);
+                    jdbcTemplate.execute("ALTER TABLE " + table + " ALTER COLUMN plant_uml_code TYPE bytea"
+                            + " USING convert_to(plant_uml_code, 'UTF8')");
+                    logger.info("Converted {}.plant_uml_code from TEXT to bytea", table);
+                }
+            } catch (DataAccessException e) {
+                logger.warn("Could not convert {}.plant_uml_code to bytea: {}", table, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!recompressExisting) {
+            return;
+        }
+        for (String table : TABLES) {
+            try {
+                int rewritten = recompress(table);
+                logger.info("Re-encoded {} row(s) of {}.plant_uml_code (compression {})",
+                        rewritten, table, converter.isCompressionEnabled() ? "on" : "off");
+            } catch (DataAccessException e) {
+                logger.error("Failed to re-encode {}.plant_uml_code", table, e);
+            }
+        }
+    }
+
+    /**
+     * Walks the table by id in batches and rewrites only rows whose stored
+     * bytes differ from the current encoding.
+     */
+    private int recompress(String table) {
+        long lastId = 0;
+        int rewritten = 0;
+        while (true) {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                    "SELECT id, plant_uml_code FROM " + table
+                            + " WHERE id > ? AND plant_uml_code IS NOT NULL ORDER BY id LIMIT ?",
+                    lastId, BATCH_SIZE);
+            if (rows.isEmpty()) {
+                return rewritten;
+            }
+            for (Map<String, Object> row : rows) {
+                lastId = ((Number) row.get("id")).longValue();
+                byte[] stored = (byte[]) row.get("plant_uml_code");
+                byte[] encoded = converter.convertToDatabaseColumn(converter.convertToEntityAttribute(stored));
+                if (!Arrays.equals(stored, encoded)) {
+                    // Skips the row if the application changed it since it was read
+                    rewritten += jdbcTemplate.update("UPDATE " + table
+                            + " SET plant_uml_code = ? WHERE id = ? AND plant_uml_code = ?", encoded, lastId, stored);
+                }
+            }
+        }
+    }
+}
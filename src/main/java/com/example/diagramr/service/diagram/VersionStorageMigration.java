@@ -0,0 +1,156 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.model.DiagramVersion;
+import com.example.diagramr.repository.DiagramVersionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Migrates diagram_versions to delta storage. Rows written before deltas
+ * existed have no storage kind and keep working as full snapshots, so the
+ * only required step is relaxing the NOT NULL constraint that ddl-auto
+ * leaves on the old source column, plus backfilling the per-diagram version
+ * counter and lock version of diagrams created before they existed. Version
+ * numbers duplicated before the counter existed are renumbered so that the
+ * unique constraint on them holds. With
+ * {@code diagramr.versions.migrate-existing=true}, existing rows are also
+ * re-encoded into delta chains, one diagram per transaction.
+ */
+@Component
+public class VersionStorageMigration implements InitializingBean, ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(VersionStorageMigration.class);
+
+    private static final String UNIQUE_VERSION_CONSTRAINT = "uk_diagram_versions_diagram_number";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DiagramVersionRepository diagramVersionRepository;
+    private final DiagramVersionStore diagramVersionStore;
+    private final boolean migrateExisting;
+
+    public VersionStorageMigration(
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            DiagramVersionRepository diagramVersionRepository,
+            DiagramVersionStore diagramVersionStore,
+            @Value("${diagramr.versions.migrate-existing:false}") boolean migrateExisting) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.diagramVersionRepository = diagramVersionRepository;
+        this.diagramVersionStore = diagramVersionStore;
+        this.migrateExisting = migrateExisting;
+    }
+
+    /**
+     * Runs before the web server starts, so no delta row can be written
+     * while the constraint is still in place.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            jdbcTemplate.execute("ALTER TABLE diagram_versions ALTER COLUMN plant_uml_code DROP NOT NULL");
+        } catch (DataAccessException e) {
+            logger.warn("Could not relax NOT NULL on diagram_versions.plant_uml_code: {}", e.getMessage());
+        }
+        transactionTemplate.executeWithoutResult(status -> enforceUniqueVersionNumbers());
+        try {
+            int backfilled = jdbcTemplate.update("""
+                    UPDATE diagrams d SET last_version_number = (
+                        SELECT coalesce(max(v.version_number), 0) FROM diagram_versions v WHERE v.diagram_id = d.id)
+                    WHERE d.last_version_number IS NULL
+                       OR d.last_version_number < (
+                           SELECT max(v.version_number) FROM diagram_versions v WHERE v.diagram_id = d.id)""");
+            jdbcTemplate.update("UPDATE diagrams SET lock_version = 0 WHERE lock_version IS NULL");
+            if (backfilled > 0) {
+                logger.info("Backfilled the version counter of {} diagram(s)", backfilled);
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Could not backfill diagrams.last_version_number: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * ddl-auto only logs it when it cannot add the unique constraint on
+     * (diagram_id, version_number), which happens when concurrent saves
+     * before the version counter left duplicate numbers. Later copies of a
+     * duplicated number are moved past the diagram's highest version, in
+     * order of creation, and the constraint is added if it is still
+     * missing. If that fails, startup fails rather than running without it.
+     */
+    private void enforceUniqueVersionNumbers() {
+        int renumbered = jdbcTemplate.update("""
+                WITH copies AS (
+                    SELECT id, diagram_id,
+                           row_number() OVER (PARTITION BY diagram_id, version_number ORDER BY created_at, id) AS copy
+                    FROM diagram_versions),
+                moved AS (
+                    SELECT c.id,
+                           (SELECT max(m.version_number) FROM diagram_versions m WHERE m.diagram_id = c.diagram_id)
+                               + row_number() OVER (PARTITION BY c.diagram_id ORDER BY c.id) AS version_number
+                    FROM copies c
+                    WHERE c.copy > 1)
+                UPDATE diagram_versions v SET version_number = moved.version_number
+                FROM moved WHERE v.id = moved.id""");
+        if (renumbered > 0) {
+            logger.warn("Renumbered {} diagram version(s) that duplicated an existing version number", renumbered);
+        }
+
+        Integer constraints = jdbcTemplate.queryForObject("""
+                SELECT count(*) FROM information_schema.table_constraints
+                WHERE table_name = 'diagram_versions' AND constraint_name = ?""",
+                Integer.class, UNIQUE_VERSION_CONSTRAINT);
+        if (constraints == null || constraints == 0) {
+            try {
+                jdbcTemplate.execute("ALTER TABLE diagram_versions ADD CONSTRAINT " + UNIQUE_VERSION_CONSTRAINT
+                        + " UNIQUE (diagram_id, version_number)");
+                logger.info("Added unique constraint {}", UNIQUE_VERSION_CONSTRAINT);
+            } catch (DataAccessException e) {
+                throw new IllegalStateException("Could not add unique constraint " + UNIQUE_VERSION_CONSTRAINT
+                        + " on diagram_versions; version numbers may be duplicated", e);
+            }
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!migrateExisting) {
+            return;
+        }
+        List<Long> diagramIds = diagramVersionRepository.findDiagramIdsWithLegacyVersions();
+        logger.info("Re-encoding versions of {} diagram(s) as delta chains", diagramIds.size());
+        for (Long diagramId : diagramIds) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> migrateDiagram(diagramId));
+            } catch (RuntimeException e) {
+                logger.error("Failed to migrate versions of diagram id {}", diagramId, e);
+            }
+        }
+        logger.info("Version storage migration finished");
+    }
+
+    private void migrateDiagram(Long diagramId) {
+        DiagramVersion previous = null;
+        int migrated = 0;
+        for (DiagramVersion version : diagramVersionRepository.findByDiagramIdOrderByVersionNumberAsc(diagramId)) {
+            if (version.getStorageKind() == null) {
+                diagramVersionStore.prepare(version, version.getStoredCode(), previous);
+                migrated++;
+            } else {
+                diagramVersionStore.resolve(version);
+            }
+            previous = version;
+        }
+        logger.debug("Migrated {} version(s) of diagram id {}", migrated, diagramId);
+    }
+}
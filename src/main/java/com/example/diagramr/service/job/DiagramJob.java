@@ -0,0 +1,127 @@
+package com.example.diagramr.service.job;
+
+import com.example.diagramr.model.DiagramJobStatus;
+import com.example.diagramr.model.DiagramResponse;
+
+import java.time.Instant;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory state of one asynchronous generate or refine request. State
+ * transitions are synchronized so that a cancel racing with completion
+ * leaves the job in exactly one terminal state.
+ */
+public class DiagramJob {
+
+    public enum Type {
+        GENERATE, REFINE
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    private final String id;
+    private final Long ownerId;
+    private final Type type;
+    private final Instant createdAt = Instant.now();
+    private final AtomicInteger receivedChars = new AtomicInteger();
+    private Status status = Status.QUEUED;
+    private Instant finishedAt;
+    private DiagramResponse result;
+    private String errorMessage;
+    private Future<?> future;
+
+    public DiagramJob(String id, Long ownerId, Type type) {
+        this.id = id;
+        this.ownerId = ownerId;
+        this.type = type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Long getOwnerId() {
+        return ownerId;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized DiagramResponse getResult() {
+        return result;
+    }
+
+    public synchronized boolean isFinished() {
+        return status != Status.QUEUED && status != Status.RUNNING;
+    }
+
+    void addReceivedChars(int chars) {
+        receivedChars.addAndGet(chars);
+    }
+
+    synchronized void attach(Future<?> future) {
+        this.future = future;
+        if (status == Status.CANCELLED) {
+            future.cancel(true);
+        }
+    }
+
+    synchronized boolean markRunning() {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        status = Status.RUNNING;
+        return true;
+    }
+
+    synchronized void complete(DiagramResponse response) {
+        if (isFinished()) {
+            return;
+        }
+        result = response;
+        status = response.isValid() ? Status.SUCCEEDED : Status.FAILED;
+        errorMessage = response.getErrorMessage();
+        finishedAt = Instant.now();
+    }
+
+    synchronized void fail(String message) {
+        if (isFinished()) {
+            return;
+        }
+        status = Status.FAILED;
+        errorMessage = message;
+        finishedAt = Instant.now();
+    }
+
+    /**
+     * Cancels the job and interrupts its worker, which disposes the
+     * in-flight LLM stream. Returns false if the job had already finished.
+     */
+    synchronized boolean cancel() {
+        if (isFinished()) {
+            return false;
+        }
+        status = Status.CANCELLED;
+        finishedAt = Instant.now();
+        if (future != null) {
+            future.cancel(true);
+        }
+        return true;
+    }
+
+    public synchronized DiagramJobStatus toStatus() {
+        return DiagramJobStatus.builder()
+                .jobId(id)
+                .type(type.name())
+                .status(status.name())
+                .createdAt(createdAt)
+                .finishedAt(finishedAt)
+                .receivedChars(receivedChars.get())
+                .errorMessage(errorMessage)
+                .build();
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.diagramr.service.job;
+
+import com.example.diagramr.exception.JobRejectedException;
+import com.example.diagramr.model.DiagramRequest;
+import com.example.diagramr.model.DiagramStreamEvent;
+import com.example.diagramr.service.diagram.DiagramService;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs generate and refine requests as background jobs so that the HTTP
+ * request returns immediately. Work runs on a bounded pool sized
+ * independently of Tomcat; finished jobs stay in an expiring in-memory
+ * registry until their owner collects the result.
+ */
+@Service
+public class DiagramJobService implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagramJobService.class);
+
+    private final DiagramService diagramService;
+    private final ThreadPoolExecutor executor;
+    private final Cache<String, DiagramJob> jobs;
+    private final Duration retryAfter;
+
+    public DiagramJobService(
+            DiagramService diagramService,
+            @Value("${diagramr.jobs.workers:8}") int workers,
+            @Value("${diagramr.jobs.queue-capacity:100}") int queueCapacity,
+            @Value("${diagramr.jobs.retention:15m}") Duration retention,
+            @Value("${diagramr.jobs.max-retained:10000}") long maxRetained,
+            @Value("${diagramr.jobs.retry-after:10s}") Duration retryAfter,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            MeterRegistry meterRegistry) {
+        this.diagramService = diagramService;
+        this.retryAfter = retryAfter;
+        this.executor = new ThreadPoolExecutor(
+                workers,
+                workers,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                // Jobs mostly wait on the LLM, so they may run on virtual threads; the pool size
+                // still bounds how many run at once.
+                virtualThreads
+                        ? Thread.ofVirtual().name("diagram-job-", 0).factory()
+                        : Thread.ofPlatform().name("diagram-job-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.jobs = Caffeine.newBuilder()
+                .expireAfterWrite(retention)
+                .maximumSize(maxRetained)
+                .removalListener((String jobId, DiagramJob job, RemovalCause cause) -> {
+                    if (job != null && cause.wasEvicted() && job.cancel()) {
+                        logger.warn("Diagram job {} expired before finishing and was cancelled", jobId);
+                    }
+                })
+                .build();
+
+        Gauge.builder("diagramr.jobs.queue.depth", executor, e -> e.getQueue().size())
+                .description("Diagram jobs waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("diagramr.jobs.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Diagram jobs currently running")
+                .register(meterRegistry);
+
+        logger.info("Diagram job executor started with {} {} workers, queue capacity {}, retention {}",
+                workers, virtualThreads ? "virtual" : "platform", queueCapacity, retention);
+    }
+
+    public DiagramJob submitGenerate(DiagramRequest request, Long ownerId) {
+        return submit(DiagramJob.Type.GENERATE, ownerId, () -> diagramService.streamGenerateDiagram(request));
+    }
+
+    public DiagramJob submitRefine(DiagramRequest request, Long ownerId) {
+        return submit(DiagramJob.Type.REFINE, ownerId, () -> diagramService.streamRefineDiagram(request, ownerId));
+    }
+
+    public Optional<DiagramJob> getJob(String jobId, Long ownerId) {
+        return Optional.ofNullable(jobs.getIfPresent(jobId))
+                .filter(job -> job.getOwnerId().equals(ownerId));
+    }
+
+    public Optional<DiagramJob> cancel(String jobId, Long ownerId) {
+        Optional<DiagramJob> job = getJob(jobId, ownerId);
+        job.ifPresent(j -> {
+            if (j.cancel()) {
+                logger.info("Cancelled diagram job {} for user id {}", jobId, ownerId);
+            }
+        });
+        return job;
+    }
+
+    private DiagramJob submit(DiagramJob.Type type, Long ownerId, Supplier<Flux<DiagramStreamEvent>> work) {
+        DiagramJob job = new DiagramJob(UUID.randomUUID().toString(), ownerId, type);
+        try {
+            job.attach(executor.submit(() -> run(job, work)));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Diagram job queue is full; rejecting {} job for user id {}", type, ownerId);
+            throw new JobRejectedException("Too many diagram jobs are queued. Please retry shortly.", retryAfter);
+        }
+        jobs.put(job.getId(), job);
+        logger.info("Submitted {} job {} for user id {}", type, job.getId(), ownerId);
+        return job;
+    }
+
+    /**
+     * Consumes the streaming pipeline on the job thread. Blocking on the
+     * stream means that interrupting this thread (cancel) disposes the
+     * subscription, which aborts the in-flight LLM request.
+     */
+    private void run(DiagramJob job, Supplier<Flux<DiagramStreamEvent>> work) {
+        if (!job.markRunning()) {
+            return;
+        }
+        try {
+            DiagramStreamEvent result = work.get()
+                    .doOnNext(event -> {
+                        if (DiagramStreamEvent.TOKEN.equals(event.getType())) {
+                            job.addReceivedChars(event.getToken().length());
+                        }
+                    })
+                    .filter(event -> DiagramStreamEvent.RESULT.equals(event.getType()))
+                    .blockLast();
+            if (result == null) {
+                job.fail("The diagram job finished without a result");
+            } else {
+                job.complete(result.getResponse());
+            }
+            logger.info("Diagram job {} finished with status {}", job.getId(), job.getStatus());
+        } catch (RuntimeException e) {
+            if (job.getStatus() == DiagramJob.Status.CANCELLED) {
+                logger.info("Diagram job {} stopped after cancellation", job.getId());
+                return;
+            }
+            logger.error("Diagram job {} failed", job.getId(), e);
+            job.fail("Error running diagram job: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -1,13 +1,18 @@
 package com.example.diagramr.service.llm;
 
+import com.example.diagramr.model.DiagramType;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 
@@ -17,219 +22,177 @@ public class GroqLlmService implements LlmService {
     private static final Logger log = LoggerFactory.getLogger(GroqLlmService.class);
 
     private final ChatModel chatModel;
-    private final String SYSTEM_PROMPT_TEMPLATE = """
-            You are an expert at creating PlantUML diagrams.
-            Your task is to convert natural language descriptions into valid PlantUML code.
-
-            Rules:
-            1. Always begin with @startuml and end with @enduml. Do not include any other uml tags.
-            2. Use appropriate PlantUML syntax for the type of diagram
-            3. Include meaningful relationships between elements
-            4. Add comments to explain complex parts
-            5. Focus only on generating valid PlantUML code which does not have any syntax errors
-            6. Return ONLY the PlantUML code without any explanations or markdown formatting
-
-            Examples:
-            - Class Diagram:
-            @startuml
-            class User {
-            -id: Long
-            -username: String
-            -email: String
-            +login(): boolean
-            +logout(): void
-            }
-
-            class Order {
-            -orderId: String
-            -orderDate: Date
-            -total: Double
-            +calculateTotal(): Double
-            +cancel(): boolean
-            }
-
-            class Product {
-            -productId: String
-            -name: String
-            -price: Double
-            +isAvailable(): boolean
-            }
-
-            User "1" -- "many" Order: places >
-            Order "many" -- "many" Product: contains >
-            @enduml
-
-            - Activity Diagram:
-            @startuml
-            start
-            :Customer places order;
-            if (Items in stock?) then (yes)
-            :Process payment;
-            if (Payment successful?) then (yes)
-                :Ship order;
-                :Send confirmation email;
-            else (no)
-                :Notify payment failure;
-            endif
-            else (no)
-            :Add to backorder;
-            :Notify customer;
-            endif
-            :Close order process;
-            stop
-            @enduml
-
-            - Use Case Diagram:
-            @startuml
-            left to right direction
-            actor Customer
-            actor Administrator
-
-            rectangle "E-commerce System" {
-            Customer -- (Browse Products)
-            Customer -- (Add to Cart)
-            Customer -- (Checkout)
-            (Manage Inventory) -- Administrator
-            (Process Returns) -- Administrator
-
-            (Checkout) .> (Process Payment) : includes
-            (Process Returns) .> (Update Inventory) : includes
-            }
-            @enduml
-
-            - Sequence Diagram:
-            @startuml
-            actor User
-            participant "Web Browser" as Browser
-            participant "Web Server" as Server
-            participant "Database" as DB
-
-            User -> Browser: Enter login credentials
-            Browser -> Server: POST /login
-            Server -> DB: Validate credentials
-            DB --> Server: Return user data
-            alt successful login
-                Server --> Browser: Return success + token
-                Browser --> User: Show dashboard
-            else failed login
-                Server --> Browser: Return error
-                Browser --> User: Show error message
-            end
-            @enduml
-
-            - State Diagram:
-            @startuml
-            title Document Approval Process
-
-            [*] --> Draft : Create new document
-            Draft --> Review : Submit for review
-            Review --> Revision : Request changes
-            Revision --> Review : Resubmit
-            Review --> Approved : Accept document
-            Approved --> Published : Publish
-            Published --> [*]
-
-            state Review {
-            [*] --> TechnicalReview
-            TechnicalReview --> ContentReview
-            ContentReview --> [*]
-            }
-
-            note right of Draft : Author works on document
-            note right of Revision : Author makes requested changes
-            note right of Published : Document available to public
-            @enduml
-
-            Diagram type context: %s
-            """;
-
-    public GroqLlmService(ChatModel chatModel) {
+    private final PromptTemplateRegistry promptTemplates;
+    private final MeterRegistry meterRegistry;
+
+    public GroqLlmService(ChatModel chatModel, PromptTemplateRegistry promptTemplates, MeterRegistry meterRegistry) {
         this.chatModel = chatModel;
+        this.promptTemplates = promptTemplates;
+        this.meterRegistry = meterRegistry;
     }
 
     @Override
     public String generatePlantUml(String prompt) {
-        String diagramType = determineDiagramType(prompt);
-        log.info("Determined diagram type for generation: {}", diagramType);
+        DiagramType diagramType = DiagramType.fromPrompt(prompt);
+        Prompt aiPrompt = buildGenerationPrompt(diagramType, prompt);
 
-        Message systemMessage = getSystemMessage(diagramType);
+        ChatResponse chatResponse = chatModel.call(aiPrompt);
+        recordReportedTokens("generate", diagramType, chatResponse);
+        String response = chatResponse.getResult().getOutput().getText();
+        log.info("LLM response for generation:\n{}", response);
+        return response;
+    }
 
-        Message userMessage = new UserMessage(prompt);
-        log.info("User prompt for generation: {}", prompt);
+    @Override
+    public String refinePlantUml(String existingCode, String feedback) {
+        return refinePlantUml(existingCode, feedback, null);
+    }
 
-        Prompt aiPrompt = new Prompt(List.of(systemMessage, userMessage));
+    @Override
+    public String refinePlantUml(String existingCode, String feedback, String sessionSummary) {
+        DiagramType diagramType = DiagramType.fromCode(existingCode);
+        Prompt aiPrompt = buildRefinementPrompt(diagramType, existingCode, feedback, sessionSummary);
 
-        String response = chatModel.call(aiPrompt).getResult().getOutput().getText();
-        log.info("LLM response for generation:\n{}", response);
+        ChatResponse chatResponse = chatModel.call(aiPrompt);
+        recordReportedTokens("refine", diagramType, chatResponse);
+        String response = chatResponse.getResult().getOutput().getText();
+        log.info("LLM response for refinement:\n{}", response);
         return response;
     }
 
     @Override
-    public String refinePlantUml(String existingCode, String feedback) {
-        String diagramType = determineDiagramTypeFromCode(existingCode);
-        log.info("Determined diagram type for refinement: {}", diagramType);
+    public Flux<String> streamPlantUml(String prompt) {
+        DiagramType diagramType = DiagramType.fromPrompt(prompt);
+        return chatModel.stream(buildGenerationPrompt(diagramType, prompt))
+                .doOnNext(response -> recordReportedTokens("generate", diagramType, response))
+                .mapNotNull(GroqLlmService::chunkText);
+    }
+
+    @Override
+    public Flux<String> streamRefinedPlantUml(String existingCode, String feedback) {
+        return streamRefinedPlantUml(existingCode, feedback, null);
+    }
+
+    @Override
+    public Flux<String> streamRefinedPlantUml(String existingCode, String feedback, String sessionSummary) {
+        DiagramType diagramType = DiagramType.fromCode(existingCode);
+        return chatModel.stream(buildRefinementPrompt(diagramType, existingCode, feedback, sessionSummary))
+                .doOnNext(response -> recordReportedTokens("refine", diagramType, response))
+                .mapNotNull(GroqLlmService::chunkText);
+    }
+
+    private Prompt buildGenerationPrompt(DiagramType diagramType, String prompt) {
+        log.info("Determined diagram type for generation: {}", diagramType.getDisplayName());
+
+        SystemMessage systemMessage = getSystemMessage(diagramType);
+
+        Message userMessage = new UserMessage(prompt);
+        log.info("User prompt for generation: {}", prompt);
+        recordEstimatedTokens("generate", diagramType,
+                promptTemplates.checkBudget(systemMessage, prompt));
+
+        return new Prompt(List.of(systemMessage, userMessage));
+    }
 
-        Message systemMessage = getSystemMessage(diagramType);
+    private Prompt buildRefinementPrompt(DiagramType diagramType, String existingCode, String feedback,
+            String sessionSummary) {
+        log.info("Determined diagram type for refinement: {}", diagramType.getDisplayName());
+
+        SystemMessage systemMessage = getSystemMessage(diagramType);
 
         String userPrompt = String.format(
                 "Refine this PlantUML diagram based on the following feedback:\n\nFeedback: %s\n\nExisting code:\n```\n%s\n```",
                 feedback,
                 existingCode);
-        log.info("User prompt for refinement: {}", userPrompt);
 
-        Message userMessage = new UserMessage(userPrompt);
+        if (sessionSummary == null || sessionSummary.isEmpty()) {
+            log.info("User prompt for refinement: {}", userPrompt);
+            int statelessTokens = promptTemplates.checkBudget(systemMessage, userPrompt);
+            recordEstimatedTokens("refine", diagramType, statelessTokens);
+            recordRefineTurn(diagramType, false, statelessTokens, 0);
+            return new Prompt(List.of(systemMessage, new UserMessage(userPrompt)));
+        }
 
-        Prompt aiPrompt = new Prompt(List.of(systemMessage, userMessage));
+        // Follow-up turn: a compact system message, the summary of earlier changes, the latest code and
+        // only the new feedback
+        SystemMessage sessionSystemMessage = promptTemplates.refineSystemMessage(diagramType);
+        String sessionPrompt = String.format(
+                "Changes already made in this session:\n%s\nCurrent diagram:\n%s\n\nApply this change and return the complete diagram: %s",
+                sessionSummary,
+                existingCode,
+                feedback);
+        log.debug("Session prompt for refinement: {}", sessionPrompt);
+        int sessionTokens = promptTemplates.checkBudget(sessionSystemMessage, sessionPrompt);
+        recordEstimatedTokens("refine", diagramType, sessionTokens);
+        recordRefineTurn(diagramType, true, sessionTokens,
+                PromptTemplateRegistry.estimateTokens(systemMessage, userPrompt) - sessionTokens);
+
+        return new Prompt(List.of(sessionSystemMessage, new UserMessage(sessionPrompt)));
+    }
 
-        String response = chatModel.call(aiPrompt).getResult().getOutput().getText();
-        log.info("LLM response for refinement:\n{}", response);
-        return response;
+    private static String chunkText(ChatResponse response) {
+        if (response.getResult() == null || response.getResult().getOutput() == null) {
+            return null;
+        }
+        String text = response.getResult().getOutput().getText();
+        return text == null || text.isEmpty() ? null : text;
     }
 
-    private Message getSystemMessage(String diagramType) {
-        String systemPrompt = String.format(SYSTEM_PROMPT_TEMPLATE, diagramType);
-        log.info("System prompt: {}", systemPrompt);
-        return new SystemMessage(systemPrompt);
+    private SystemMessage getSystemMessage(DiagramType diagramType) {
+        SystemMessage systemMessage = promptTemplates.systemMessage(diagramType);
+        log.debug("System prompt: {}", systemMessage.getText());
+        return systemMessage;
     }
 
-    private String determineDiagramType(String prompt) {
-        prompt = prompt.toLowerCase();
-
-        if (prompt.contains("class") || prompt.contains("inheritance") || prompt.contains("attributes")
-                || prompt.contains("methods")) {
-            return "Class Diagram";
-        } else if (prompt.contains("sequence") || prompt.contains("message") || prompt.contains("actor")) {
-            return "Sequence Diagram";
-        } else if (prompt.contains("use case") || prompt.contains("actor") || prompt.contains("user")) {
-            return "Use Case Diagram";
-        } else if (prompt.contains("activity") || prompt.contains("workflow") || prompt.contains("process")) {
-            return "Activity Diagram";
-        } else if (prompt.contains("component") || prompt.contains("interface") || prompt.contains("service")) {
-            return "Component Diagram";
-        } else if (prompt.contains("state") || prompt.contains("transition")) {
-            return "State Diagram";
-        } else {
-            return "General Diagram";
+    private void recordEstimatedTokens(String operation, DiagramType diagramType, int tokens) {
+        log.debug("Estimated {} input tokens for {} ({})", tokens, operation, diagramType.getDisplayName());
+        promptTokens("diagramr.llm.prompt.tokens.estimated", operation, diagramType).record(tokens);
+    }
+
+    /**
+     * Per-turn refine prompt size, tagged by whether the turn used a session,
+     * and the estimated tokens a session turn saved over a stateless prompt.
+     */
+    private void recordRefineTurn(DiagramType diagramType, boolean session, int tokens, int savedTokens) {
+        DistributionSummary.builder("diagramr.refine.prompt.tokens")
+                .description("Estimated input tokens per refine turn")
+                .baseUnit("tokens")
+                .tag("session", String.valueOf(session))
+                .tag("type", diagramType.name())
+                .register(meterRegistry)
+                .record(tokens);
+        if (session) {
+            log.debug("Refine session turn saved about {} input tokens", savedTokens);
+            DistributionSummary.builder("diagramr.refine.prompt.tokens.saved")
+                    .description("Estimated input tokens saved by a refine session turn")
+                    .baseUnit("tokens")
+                    .tag("type", diagramType.name())
+                    .register(meterRegistry)
+                    .record(Math.max(savedTokens, 0));
         }
     }
 
-    private String determineDiagramTypeFromCode(String code) {
-        code = code.toLowerCase();
-
-        if (code.contains("class ")) {
-            return "Class Diagram";
-        } else if (code.contains("actor ") || code.contains("participant ")) {
-            return "Sequence Diagram";
-        } else if (code.contains("usecase")) {
-            return "Use Case Diagram";
-        } else if (code.contains("start") && code.contains("end") && (code.contains("if") || code.contains("while"))) {
-            return "Activity Diagram";
-        } else if (code.contains("component")) {
-            return "Component Diagram";
-        } else if (code.contains("state")) {
-            return "State Diagram";
-        } else {
-            return "General Diagram";
+    /**
+     * Records the provider-reported prompt tokens. Streaming responses only
+     * carry usage on the final chunk, so chunks without it are skipped.
+     */
+    private void recordReportedTokens(String operation, DiagramType diagramType, ChatResponse response) {
+        if (response.getMetadata() == null || response.getMetadata().getUsage() == null) {
+            return;
+        }
+        Number tokens = response.getMetadata().getUsage().getPromptTokens();
+        if (tokens != null && tokens.longValue() > 0) {
+            log.info("LLM reported {} prompt tokens for {} ({})", tokens, operation, diagramType.getDisplayName());
+            promptTokens("diagramr.llm.prompt.tokens", operation, diagramType).record(tokens.doubleValue());
         }
     }
-}
\ No newline at end of file
+
+    private DistributionSummary promptTokens(String name, String operation, DiagramType diagramType) {
+        return DistributionSummary.builder(name)
+                .description("Input tokens per LLM request")
+                .baseUnit("tokens")
+                .tag("operation", operation)
+                .tag("type", diagramType.name())
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.diagramr.service.llm;
+
+import com.example.diagramr.model.DiagramType;
+import com.example.diagramr.util.PlantUmlSourceHasher;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Exact-match cache of LLM output. Keys cover the normalized request, the
+ * detected diagram type and the chat model options, so changing the model or
+ * sampling settings never serves stale answers. Callers only store output
+ * that rendered successfully.
+ */
+@Component
+public class LlmResponseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(LlmResponseCache.class);
+
+    private final Cache<String, String> cache;
+    private final String modelOptions;
+
+    public LlmResponseCache(
+            @Value("${diagramr.llm.cache.ttl:24h}") Duration ttl,
+            @Value("${diagramr.llm.cache.max-entries:10000}") long maxEntries,
+            @Value("${spring.ai.openai.chat.options.model:}") String model,
+            @Value("${spring.ai.openai.chat.options.temperature:}") String temperature,
+            @Value("${spring.ai.openai.chat.options.max-tokens:}") String maxTokens,
+            MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+        this.modelOptions = "model=" + model + ";temperature=" + temperature + ";max-tokens=" + maxTokens;
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "llm-response");
+        log.info("LLM response cache initialised (ttl {}, max {} entries, options {})", ttl, maxEntries, modelOptions);
+    }
+
+    public String generationKey(String prompt) {
+        return key("generate", DiagramType.fromPrompt(prompt), normalizeText(prompt));
+    }
+
+    public String refinementKey(String existingCode, String feedback) {
+        return refinementKey(existingCode, feedback, null);
+    }
+
+    /**
+     * Session turns include the summary of earlier changes, since the same
+     * feedback can mean something different later in a session.
+     */
+    public String refinementKey(String existingCode, String feedback, String sessionSummary) {
+        String payload = normalizeText(feedback) + "\n" + PlantUmlSourceHasher.normalize(existingCode);
+        if (sessionSummary != null && !sessionSummary.isEmpty()) {
+            payload += "\n" + normalizeText(sessionSummary);
+        }
+        return key("refine", DiagramType.fromCode(existingCode), payload);
+    }
+
+    public Optional<String> get(String key) {
+        String cached = cache.getIfPresent(key);
+        if (cached != null) {
+            log.info("LLM response cache hit for key {}", key);
+        }
+        return Optional.ofNullable(cached);
+    }
+
+    public void put(String key, String plantUmlCode) {
+        cache.put(key, plantUmlCode);
+    }
+
+    private String key(String operation, DiagramType diagramType, String payload) {
+        return PlantUmlSourceHasher.sha256Hex(
+                operation + "\n" + diagramType.name() + "\n" + modelOptions + "\n" + payload);
+    }
+
+    private static String normalizeText(String text) {
+        return text == null ? "" : text.trim().replaceAll("\\s+", " ");
+    }
+}
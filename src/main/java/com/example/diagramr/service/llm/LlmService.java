@@ -1,7 +1,21 @@
 package com.example.diagramr.service.llm;
 
+import reactor.core.publisher.Flux;
+
 public interface LlmService {
     String generatePlantUml(String prompt);
 
     String refinePlantUml(String existingCode, String feedback);
+
+    /**
+     * Refines as a follow-up turn of a refine session. With an empty
+     * summary this is the same as a stateless refinement.
+     */
+    String refinePlantUml(String existingCode, String feedback, String sessionSummary);
+
+    Flux<String> streamPlantUml(String prompt);
+
+    Flux<String> streamRefinedPlantUml(String existingCode, String feedback);
+
+    Flux<String> streamRefinedPlantUml(String existingCode, String feedback, String sessionSummary);
 }
\ No newline at end of file
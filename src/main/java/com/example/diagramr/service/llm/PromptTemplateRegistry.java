@@ -0,0 +1,256 @@
+package com.example.diagramr.service.llm;
+
+import com.example.diagramr.exception.PromptBudgetExceededException;
+import com.example.diagramr.model.DiagramType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds one immutable system message per {@link DiagramType} at startup.
+ * Each carries the shared rules plus only the few-shot example for its own
+ * type, instead of every example on every request. Token counts are
+ * estimated at roughly four characters per token, which is close enough for
+ * budgeting; the provider's reported usage is recorded separately. Follow-up
+ * turns of a refine session get a shorter message without examples, since
+ * the diagram being refined already shows the syntax.
+ */
+@Component
+public class PromptTemplateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(PromptTemplateRegistry.class);
+
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private static final String RULES = """
+            You are an expert at creating PlantUML diagrams.
+            Your task is to convert natural language descriptions into valid PlantUML code.
+
+            Rules:
+            1. Always begin with @startuml and end with @enduml. Do not include any other uml tags.
+            2. Use appropriate PlantUML syntax for the type of diagram
+            3. Include meaningful relationships between elements
+            4. Add comments to explain complex parts
+            5. Focus only on generating valid PlantUML code which does not have any syntax errors
+            6. Return ONLY the PlantUML code without any explanations or markdown formatting
+            """;
+
+    private static final String CLASS_EXAMPLE = """
+            @startuml
+            class User {
+            -id: Long
+            -username: String
+            -email: String
+            +login(): boolean
+            +logout(): void
+            }
+
+            class Order {
+            -orderId: String
+            -orderDate: Date
+            -total: Double
+            +calculateTotal(): Double
+            +cancel(): boolean
+            }
+
+            class Product {
+            -productId: String
+            -name: String
+            -price: Double
+            +isAvailable(): boolean
+            }
+
+            User "1" -- "many" Order: places >
+            Order "many" -- "many" Product: contains >
+            @enduml
+            """;
+
+    private static final String ACTIVITY_EXAMPLE = """
+            @startuml
+            start
+            :Customer places order;
+            if (Items in stock?) then (yes)
+            :Process payment;
+            if (Payment successful?) then (yes)
+                :Ship order;
+                :Send confirmation email;
+            else (no)
+                :Notify payment failure;
+            endif
+            else (no)
+            :Add to backorder;
+            :Notify customer;
+            endif
+            :Close order process;
+            stop
+            @enduml
+            """;
+
+    private static final String USE_CASE_EXAMPLE = """
+            @startuml
+            left to right direction
+            actor Customer
+            actor Administrator
+
+            rectangle "E-commerce System" {
+            Customer -- (Browse Products)
+            Customer -- (Add to Cart)
+            Customer -- (Checkout)
+            (Manage Inventory) -- Administrator
+            (Process Returns) -- Administrator
+
+            (Checkout) .> (Process Payment) : includes
+            (Process Returns) .> (Update Inventory) : includes
+            }
+            @enduml
+            """;
+
+    private static final String SEQUENCE_EXAMPLE = """
+            @startuml
+            actor User
+            participant "Web Browser" as Browser
+            participant "Web Server" as Server
+            participant "Database" as DB
+
+            User -> Browser: Enter login credentials
+            Browser -> Server: POST /login
+            Server -> DB: Validate credentials
+            DB --> Server: Return user data
+            alt successful login
+                Server --> Browser: Return success + token
+                Browser --> User: Show dashboard
+            else failed login
+                Server --> Browser: Return error
+                Browser --> User: Show error message
+            end
+            @enduml
+            """;
+
+    private static final String STATE_EXAMPLE = """
+            @startuml
+            title Document Approval Process
+
+            [*] --> Draft : Create new document
+            Draft --> Review : Submit for review
+            Review --> Revision : Request changes
+            Revision --> Review : Resubmit
+            Review --> Approved : Accept document
+            Approved --> Published : Publish
+            Published --> [*]
+
+            state Review {
+            [*] --> TechnicalReview
+            TechnicalReview --> ContentReview
+            ContentReview --> [*]
+            }
+
+            note right of Draft : Author works on document
+            note right of Revision : Author makes requested changes
+            note right of Published : Document available to public
+            @enduml
+            """;
+
+    private static final String COMPONENT_EXAMPLE = """
+            @startuml
+            package "Web Tier" {
+            [Web App] as Web
+            }
+            package "Service Tier" {
+            [Order Service] as Orders
+            [Payment Service] as Payments
+            interface "Payments API" as PayAPI
+            }
+            database "Orders DB" as DB
+
+            Web --> Orders : REST
+            Orders --> PayAPI
+            PayAPI - Payments
+            Orders --> DB : JDBC
+            @enduml
+            """;
+
+    private static final Map<DiagramType, List<String>> EXAMPLES = Map.of(
+            DiagramType.CLASS, List.of(CLASS_EXAMPLE),
+            DiagramType.SEQUENCE, List.of(SEQUENCE_EXAMPLE),
+            DiagramType.USE_CASE, List.of(USE_CASE_EXAMPLE),
+            DiagramType.ACTIVITY, List.of(ACTIVITY_EXAMPLE),
+            DiagramType.COMPONENT, List.of(COMPONENT_EXAMPLE),
+            DiagramType.STATE, List.of(STATE_EXAMPLE),
+            // No single type applies, so one short example shows the expected output shape
+            DiagramType.GENERAL, List.of(SEQUENCE_EXAMPLE));
+
+    private final Map<DiagramType, SystemMessage> systemMessages = new EnumMap<>(DiagramType.class);
+    private final Map<DiagramType, SystemMessage> refineSystemMessages = new EnumMap<>(DiagramType.class);
+    private final int maxInputTokens;
+
+    public PromptTemplateRegistry(@Value("${diagramr.llm.prompt.max-input-tokens:4000}") int maxInputTokens) {
+        this.maxInputTokens = maxInputTokens;
+        Map<DiagramType, Integer> systemTokens = new EnumMap<>(DiagramType.class);
+        for (DiagramType diagramType : DiagramType.values()) {
+            String text = build(diagramType);
+            systemMessages.put(diagramType, new SystemMessage(text));
+            refineSystemMessages.put(diagramType, new SystemMessage(RULES + context(diagramType)));
+            systemTokens.put(diagramType, estimateTokens(text));
+        }
+        log.info("Prompt templates built (input budget {} tokens): {}", maxInputTokens, systemTokens);
+    }
+
+    public SystemMessage systemMessage(DiagramType diagramType) {
+        return systemMessages.get(diagramType);
+    }
+
+    public SystemMessage refineSystemMessage(DiagramType diagramType) {
+        return refineSystemMessages.get(diagramType);
+    }
+
+    /**
+     * Returns the estimated input tokens for the system message plus the
+     * user text, or throws if that exceeds the configured budget.
+     */
+    public int checkBudget(SystemMessage systemMessage, String userText) {
+        int tokens = estimateTokens(systemMessage, userText);
+        if (tokens > maxInputTokens) {
+            log.warn("Prompt needs about {} input tokens, over the budget of {}", tokens, maxInputTokens);
+            throw new PromptBudgetExceededException("The request is too large (about " + tokens
+                    + " tokens, limit " + maxInputTokens + "). Please shorten the description or diagram.");
+        }
+        return tokens;
+    }
+
+    public static int estimateTokens(SystemMessage systemMessage, String userText) {
+        return estimateTokens(systemMessage.getText()) + estimateTokens(userText);
+    }
+
+    public static int estimateTokens(String text) {
+        return text == null ? 0 : (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Drops examples when the system message alone would leave less than
+     * half of the budget for the user's request.
+     */
+    private String build(DiagramType diagramType) {
+        String context = context(diagramType);
+        StringBuilder examples = new StringBuilder();
+        for (String example : EXAMPLES.get(diagramType)) {
+            String candidate = examples + "\n- " + diagramType.getDisplayName() + " example:\n" + example;
+            if (estimateTokens(RULES + candidate + context) > maxInputTokens / 2) {
+                log.warn("Skipping a {} example to stay within the prompt budget", diagramType.getDisplayName());
+                break;
+            }
+            examples.setLength(0);
+            examples.append(candidate);
+        }
+        return RULES + examples + context;
+    }
+
+    private static String context(DiagramType diagramType) {
+        return "\nDiagram type context: " + diagramType.getDisplayName() + "\n";
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.diagramr.service.refine;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Server-side state of one user's refinement conversation on one diagram.
+ * Earlier feedback is kept as a bounded summary of one line per turn; the
+ * oldest lines are dropped first once the summary exceeds its budget.
+ */
+public class RefineSession {
+
+    private static final int MAX_TURN_CHARS = 200;
+
+    private final int maxSummaryChars;
+    private final Deque<String> turns = new ArrayDeque<>();
+    private int summaryChars;
+    private int omittedTurns;
+    private String latestCode;
+
+    RefineSession(int maxSummaryChars) {
+        this.maxSummaryChars = maxSummaryChars;
+    }
+
+    /**
+     * Summary of the feedback applied so far, or an empty string before the
+     * first completed turn.
+     */
+    public synchronized String summary() {
+        if (turns.isEmpty()) {
+            return "";
+        }
+        StringBuilder summary = new StringBuilder();
+        if (omittedTurns > 0) {
+            summary.append("- (").append(omittedTurns).append(" earlier changes omitted)\n");
+        }
+        turns.forEach(turn -> summary.append("- ").append(turn).append('\n'));
+        return summary.toString();
+    }
+
+    public synchronized void recordTurn(String feedback, String resultingCode) {
+        String turn = feedback == null ? "" : feedback.trim().replaceAll("\\s+", " ");
+        if (turn.length() > MAX_TURN_CHARS) {
+            turn = turn.substring(0, MAX_TURN_CHARS - 3) + "...";
+        }
+        turns.addLast(turn);
+        summaryChars += turn.length();
+        while (summaryChars > maxSummaryChars && turns.size() > 1) {
+            summaryChars -= turns.removeFirst().length();
+            omittedTurns++;
+        }
+        latestCode = resultingCode;
+    }
+
+    /**
+     * Forgets every turn, for when the user continues from code other than
+     * the session's latest result.
+     */
+    public synchronized void reset() {
+        turns.clear();
+        summaryChars = 0;
+        omittedTurns = 0;
+        latestCode = null;
+    }
+
+    public synchronized String getLatestCode() {
+        return latestCode;
+    }
+}
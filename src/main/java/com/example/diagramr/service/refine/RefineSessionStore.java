@@ -0,0 +1,55 @@
+package com.example.diagramr.service.refine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * In-memory refine sessions keyed by user and diagram. Idle sessions expire
+ * and the store is size-bounded; losing a session only means the next
+ * refinement starts a new one.
+ */
+@Component
+public class RefineSessionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RefineSessionStore.class);
+
+    private final Cache<String, RefineSession> sessions;
+    private final int maxSummaryChars;
+
+    public RefineSessionStore(
+            @Value("${diagramr.refine.session.idle-timeout:30m}") Duration idleTimeout,
+            @Value("${diagramr.refine.session.max-sessions:5000}") long maxSessions,
+            @Value("${diagramr.refine.session.summary-max-chars:1200}") int maxSummaryChars,
+            MeterRegistry meterRegistry) {
+        this.sessions = Caffeine.newBuilder()
+                .expireAfterAccess(idleTimeout)
+                .maximumSize(maxSessions)
+                .recordStats()
+                .build();
+        this.maxSummaryChars = maxSummaryChars;
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, "refine-session");
+        log.info("Refine session store initialised (idle timeout {}, max {} sessions, summary {} chars)",
+                idleTimeout, maxSessions, maxSummaryChars);
+    }
+
+    public RefineSession getOrCreate(Long userId, Long diagramId) {
+        return sessions.get(key(userId, diagramId), k -> new RefineSession(maxSummaryChars));
+    }
+
+    public void invalidateDiagram(Long diagramId) {
+        String suffix = ":" + diagramId;
+        sessions.asMap().keySet().removeIf(key -> key.endsWith(suffix));
+    }
+
+    private static String key(Long userId, Long diagramId) {
+        return userId + ":" + diagramId;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.diagramr.service.render;
+
+import net.sourceforge.plantuml.FileFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Holds back the first bytes of a render until they can be checked as a
+ * valid image header, then passes everything straight through to the
+ * target. Outputs up to {@code captureLimit} bytes are also kept so that
+ * small renders can still go into the render cache; larger ones are never
+ * held in memory.
+ */
+final class HeaderCheckingOutputStream extends OutputStream {
+
+    /**
+     * The held-back header was not a valid image of the expected format.
+     */
+    static final class InvalidOutputException extends IOException {
+        InvalidOutputException(String message) {
+            super(message);
+        }
+    }
+
+    private final OutputStream target;
+    private final FileFormat format;
+    private final byte[] header;
+    private final int captureLimit;
+    private int headerLength;
+    private boolean committed;
+    private ByteArrayOutputStream capture = new ByteArrayOutputStream();
+
+    HeaderCheckingOutputStream(OutputStream target, FileFormat format, int headerBytes, int captureLimit) {
+        this.target = target;
+        this.format = format;
+        this.header = new byte[headerBytes];
+        this.captureLimit = captureLimit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (capture != null) {
+            if (capture.size() + len > captureLimit) {
+                capture = null;
+            } else {
+                capture.write(b, off, len);
+            }
+        }
+        if (!committed) {
+            int n = Math.min(len, header.length - headerLength);
+            System.arraycopy(b, off, header, headerLength, n);
+            headerLength += n;
+            off += n;
+            len -= n;
+            if (headerLength < header.length) {
+                return;
+            }
+            commit();
+        }
+        if (len > 0) {
+            target.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (committed) {
+            target.flush();
+        }
+    }
+
+    /**
+     * Does not close the target; the caller owns it and calls
+     * {@link #finish()} once PlantUML has returned.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Checks and writes out a header shorter than the buffer.
+     */
+    void finish() throws IOException {
+        if (!committed) {
+            commit();
+        }
+        target.flush();
+    }
+
+    boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * The whole output if it stayed within the capture limit, otherwise null.
+     */
+    byte[] captured() {
+        return capture != null ? capture.toByteArray() : null;
+    }
+
+    private void commit() throws IOException {
+        String problem = PlantUmlRenderer.outputProblem(format, header, headerLength);
+        if (problem != null) {
+            throw new InvalidOutputException(problem);
+        }
+        target.write(header, 0, headerLength);
+        committed = true;
+    }
+}
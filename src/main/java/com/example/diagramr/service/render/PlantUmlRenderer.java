@@ -0,0 +1,257 @@
+package com.example.diagramr.service.render;
+
+import com.example.diagramr.exception.PlantUmlRenderingException;
+import net.sourceforge.plantuml.FileFormat;
+import net.sourceforge.plantuml.FileFormatOption;
+import net.sourceforge.plantuml.SourceStringReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs PlantUML exactly once per source and format and captures the image,
+ * the diagnostic description and any error in a single {@link RenderResult}.
+ * Every {@code SourceStringReader} call, including the syntax check that
+ * precedes rendering, happens on the {@link RenderExecutor}.
+ */
+@Component
+public class PlantUmlRenderer {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlantUmlRenderer.class);
+
+    // Enough for the XML prolog and root element of an SVG, or any binary magic number
+    private static final int HEADER_BYTES = 512;
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G' };
+    // Output a streaming render may have in flight between the worker and the client
+    private static final int PIPE_CHUNKS = 16;
+
+    private final RenderCache renderCache;
+    private final RenderExecutor renderExecutor;
+    private final PlantUmlSyntaxChecker syntaxChecker;
+    private final SvgMinifier svgMinifier;
+    private final int streamCacheMaxBytes;
+
+    public PlantUmlRenderer(RenderCache renderCache, RenderExecutor renderExecutor,
+            PlantUmlSyntaxChecker syntaxChecker, SvgMinifier svgMinifier,
+            @Value("${diagramr.render.stream.cache-max-bytes:1048576}") int streamCacheMaxBytes) {
+        this.renderCache = renderCache;
+        this.renderExecutor = renderExecutor;
+        this.syntaxChecker = syntaxChecker;
+        this.svgMinifier = svgMinifier;
+        this.streamCacheMaxBytes = streamCacheMaxBytes;
+    }
+
+    public static boolean hasDelimiters(String plantUmlCode) {
+        return plantUmlCode != null && plantUmlCode.trim().startsWith("@startuml")
+                && plantUmlCode.trim().endsWith("@enduml");
+    }
+
+    public RenderResult render(String plantUmlCode, FileFormat format) {
+        if (!hasDelimiters(plantUmlCode)) {
+            return RenderResult.failure(format, null, "PlantUML code must start with @startuml and end with @enduml");
+        }
+        return renderCache.get(plantUmlCode, format, () -> checkThenGenerate(plantUmlCode, format));
+    }
+
+    public Optional<RenderResult> cached(String sourceHash, FileFormat format) {
+        return renderCache.getIfPresent(sourceHash, format);
+    }
+
+    /**
+     * Renders straight into {@code out} instead of building a byte array.
+     * The render worker passes its output through a bounded {@link RenderPipe}
+     * and the calling thread writes it to {@code out}, so the worker never
+     * touches the target and is released when the caller gives up. Only the
+     * first bytes are held back, until they check out as a valid image;
+     * after that output goes through to the target, so a failure detected
+     * later cannot be retracted. The syntax check the worker runs first
+     * makes that rare. Outputs within {@code diagramr.render.stream.cache-max-bytes}
+     * are added to the render cache, and cache hits are written from it.
+     * Minifying SVG needs the whole document, so a streamed SVG is PlantUML's
+     * unminified output unless it comes from the cache.
+     */
+    public void stream(String plantUmlCode, FileFormat format, OutputStream out)
+            throws PlantUmlRenderingException, IOException {
+        if (!hasDelimiters(plantUmlCode)) {
+            throw new PlantUmlRenderingException("PlantUML code must start with @startuml and end with @enduml");
+        }
+        Optional<RenderResult> cached = renderCache.peek(plantUmlCode, format);
+        if (cached.isPresent()) {
+            out.write(cached.get().orThrow());
+            return;
+        }
+        // The cache holds minified SVG, so PlantUML's own SVG output is not added to it
+        boolean cacheable = format != FileFormat.SVG || !svgMinifier.isEnabled();
+        HeaderCheckingOutputStream checked = new HeaderCheckingOutputStream(out, format, HEADER_BYTES,
+                cacheable ? streamCacheMaxBytes : 0);
+        RenderPipe pipe = new RenderPipe(PIPE_CHUNKS, renderExecutor.getTimeout());
+        Future<String> future = renderExecutor.submit(() -> {
+            try {
+                SyntaxCheckResult syntax = syntaxChecker.parse(plantUmlCode);
+                if (!syntax.valid()) {
+                    throw new SyntaxRejectedException(syntax);
+                }
+                logger.debug("Streaming PlantUML as {}:\n{}", format, plantUmlCode);
+                return new SourceStringReader(plantUmlCode).generateImage(pipe.sink(), new FileFormatOption(format));
+            } finally {
+                pipe.finish();
+            }
+        });
+        String description;
+        try {
+            // Only this thread writes to the target; the worker fills the pipe and stops once it is abandoned
+            pipe.drainTo(checked);
+            description = future.get();
+            if (description == null || description.contains("Error")) {
+                logger.error("PlantUML reported an error while streaming {} (output {}): {}", format,
+                        checked.isCommitted() ? "already sent" : "discarded", description);
+                throw failed(plantUmlCode, RenderResult.failure(format, description,
+                        "PlantUML syntax error: " + (description != null ? description : "Unknown error")));
+            }
+            checked.finish();
+        } catch (HeaderCheckingOutputStream.InvalidOutputException e) {
+            logger.error("PlantUML {} output failed validation: {}", format, e.getMessage());
+            throw failed(plantUmlCode, RenderResult.failure(format, null, e.getMessage()));
+        } catch (TimeoutException e) {
+            renderExecutor.cancelTimedOut(future);
+            throw new PlantUmlRenderingException(
+                    "Rendering did not finish within " + renderExecutor.getTimeout().toSeconds() + " seconds");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PlantUmlRenderingException("Rendering was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SyntaxRejectedException rejected) {
+                logger.info("Rejected PlantUML before streaming: {}", rejected.syntax.errorMessage());
+                throw failed(plantUmlCode, RenderResult.failure(format, null,
+                        "PlantUML syntax error: " + rejected.syntax.errorMessage()));
+            }
+            logger.error("Unexpected error while streaming PlantUML {}", format, e.getCause());
+            throw new PlantUmlRenderingException(
+                    "Unexpected error rendering diagram as " + format + ": " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pipe.abandon();
+            future.cancel(true);
+        }
+
+        byte[] captured = checked.captured();
+        if (cacheable && captured != null) {
+            renderCache.put(plantUmlCode, RenderResult.success(format, captured, description));
+        }
+    }
+
+    /**
+     * Ends a streaming render task whose source failed the syntax check.
+     */
+    private static final class SyntaxRejectedException extends Exception {
+        private final SyntaxCheckResult syntax;
+
+        SyntaxRejectedException(SyntaxCheckResult syntax) {
+            super(syntax.errorMessage());
+            this.syntax = syntax;
+        }
+    }
+
+    private PlantUmlRenderingException failed(String plantUmlCode, RenderResult failure) {
+        renderCache.put(plantUmlCode, failure);
+        return new PlantUmlRenderingException(failure.errorMessage());
+    }
+
+    /**
+     * Why the start of a render output is not a valid {@code format} image,
+     * or null if it looks fine. Only the first {@code length} bytes are
+     * inspected.
+     */
+    static String outputProblem(FileFormat format, byte[] output, int length) {
+        if (length == 0) {
+            return "Failed to render " + format + " content. PlantUML output was empty.";
+        }
+        boolean valid = switch (format) {
+            case SVG -> {
+                String head = new String(output, 0, length, StandardCharsets.UTF_8).stripLeading();
+                yield head.startsWith("<svg") || head.startsWith("<?xml");
+            }
+            case PNG -> length >= PNG_SIGNATURE.length
+                    && Arrays.equals(output, 0, PNG_SIGNATURE.length, PNG_SIGNATURE, 0, PNG_SIGNATURE.length);
+            case EPS -> length >= 2 && output[0] == '%' && output[1] == '!';
+            default -> true;
+        };
+        if (valid) {
+            return null;
+        }
+        return format == FileFormat.SVG
+                ? "Failed to render valid SVG content. PlantUML output might be incomplete or invalid."
+                : "Failed to render valid " + format + " content.";
+    }
+
+    /**
+     * Parses first, in the same render task, so source with syntax errors is
+     * rejected without going on to layout and image generation.
+     */
+    private RenderResult checkThenGenerate(String plantUmlCode, FileFormat format) {
+        try {
+            return renderExecutor.execute(() -> {
+                SyntaxCheckResult syntax = syntaxChecker.parse(plantUmlCode);
+                if (!syntax.valid()) {
+                    logger.info("Rejected PlantUML before rendering: {}", syntax.errorMessage());
+                    return RenderResult.failure(format, null, "PlantUML syntax error: " + syntax.errorMessage());
+                }
+                return generate(plantUmlCode, format);
+            });
+        } catch (TimeoutException e) {
+            return RenderResult.transientFailure(format,
+                    "Rendering did not finish within " + renderExecutor.getTimeout().toSeconds() + " seconds");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return RenderResult.transientFailure(format, "Rendering was interrupted");
+        } catch (ExecutionException e) {
+            logger.error("Unexpected error during PlantUML {} rendering", format, e.getCause());
+            return RenderResult.transientFailure(format,
+                    "Unexpected error rendering diagram as " + format + ": " + e.getCause().getMessage());
+        }
+    }
+
+    private RenderResult generate(String plantUmlCode, FileFormat format) {
+        logger.debug("Rendering PlantUML to {}:\n{}", format, plantUmlCode);
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+            SourceStringReader reader = new SourceStringReader(plantUmlCode);
+            String description = reader.generateImage(outputStream, new FileFormatOption(format));
+            logger.info("PlantUML generateImage ({}) description: {}", format, description);
+
+            if (description == null || description.contains("Error")) {
+                logger.error("PlantUML reported an error during {} rendering: {}", format, description);
+                return RenderResult.failure(format, description,
+                        "PlantUML syntax error: " + (description != null ? description : "Unknown error"));
+            }
+
+            byte[] data = outputStream.toByteArray();
+            String problem = outputProblem(format, data, Math.min(data.length, HEADER_BYTES));
+            if (problem != null) {
+                logger.error("PlantUML {} output failed validation: {}", format, problem);
+                return RenderResult.failure(format, description, problem);
+            }
+            if (format == FileFormat.SVG) {
+                data = svgMinifier.optimize(plantUmlCode, data);
+            }
+            logger.debug("Rendered {} data length: {}", format, data.length);
+            return RenderResult.success(format, data, description);
+        } catch (IOException e) {
+            logger.error("IO error while rendering diagram as {}", format, e);
+            return RenderResult.transientFailure(format, "IO error while rendering diagram as " + format);
+        } catch (Exception e) {
+            logger.error("Unexpected error during PlantUML {} rendering", format, e);
+            return RenderResult.transientFailure(format,
+                    "Unexpected error rendering diagram as " + format + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.diagramr.service.render;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.sourceforge.plantuml.BlockUml;
+import net.sourceforge.plantuml.ErrorUml;
+import net.sourceforge.plantuml.PSystemError;
+import net.sourceforge.plantuml.SourceStringReader;
+import net.sourceforge.plantuml.core.Diagram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Checks PlantUML syntax by running only block extraction and diagram
+ * parsing. No layout, Graphviz or image generation happens, so a check costs
+ * microseconds to a few milliseconds. The parse still runs PlantUML, so it
+ * happens on the {@link RenderExecutor} like every other
+ * {@code SourceStringReader} call; a full render queue rejects checks too.
+ */
+@Component
+public class PlantUmlSyntaxChecker {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlantUmlSyntaxChecker.class);
+
+    private final RenderExecutor renderExecutor;
+    private final Timer checkTimer;
+
+    public PlantUmlSyntaxChecker(RenderExecutor renderExecutor, MeterRegistry meterRegistry) {
+        this.renderExecutor = renderExecutor;
+        this.checkTimer = Timer.builder("diagramr.syntax.check")
+                .description("Time spent on parse-only PlantUML syntax checks")
+                .register(meterRegistry);
+    }
+
+    public SyntaxCheckResult check(String plantUmlCode) {
+        try {
+            return renderExecutor.execute(() -> parse(plantUmlCode));
+        } catch (TimeoutException e) {
+            return SyntaxCheckResult.invalid(List.of(new SyntaxCheckResult.SyntaxError(1,
+                    "Syntax check did not finish within " + renderExecutor.getTimeout().toSeconds() + " seconds")), 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return SyntaxCheckResult.invalid(List.of(new SyntaxCheckResult.SyntaxError(1,
+                    "Syntax check was interrupted")), 0);
+        } catch (ExecutionException e) {
+            logger.error("Unexpected error during syntax check", e.getCause());
+            return SyntaxCheckResult.invalid(List.of(new SyntaxCheckResult.SyntaxError(1,
+                    "Could not parse diagram: " + e.getCause().getMessage())), 0);
+        }
+    }
+
+    /**
+     * Runs the check on the calling thread. Only for code that is already
+     * running on a render worker.
+     */
+    SyntaxCheckResult parse(String plantUmlCode) {
+        long start = System.nanoTime();
+        List<SyntaxCheckResult.SyntaxError> errors = new ArrayList<>();
+        try {
+            String source = plantUmlCode == null ? "" : plantUmlCode;
+            List<BlockUml> blocks = new SourceStringReader(source).getBlocks();
+            if (blocks.isEmpty()) {
+                errors.add(new SyntaxCheckResult.SyntaxError(1, "No @startuml ... @enduml block found"));
+            }
+            List<Integer> blockStartLines = blockStartLines(source);
+            for (int i = 0; i < blocks.size(); i++) {
+                int blockStartLine = i < blockStartLines.size() ? blockStartLines.get(i) : 1;
+                collectErrors(blocks.get(i).getDiagram(), blockStartLine, errors);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("PlantUML parser failed during syntax check", e);
+            errors.add(new SyntaxCheckResult.SyntaxError(1, "Could not parse diagram: " + e.getMessage()));
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        checkTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        if (errors.isEmpty()) {
+            return SyntaxCheckResult.valid(elapsedMicros);
+        }
+        logger.debug("Syntax check found {} error(s) in {} us", errors.size(), elapsedMicros);
+        return SyntaxCheckResult.invalid(errors, elapsedMicros);
+    }
+
+    /**
+     * Error positions are line offsets within the block, counted from its
+     * {@code @start} line.
+     */
+    private static void collectErrors(Diagram diagram, int blockStartLine, List<SyntaxCheckResult.SyntaxError> errors) {
+        if (diagram == null) {
+            errors.add(new SyntaxCheckResult.SyntaxError(blockStartLine, "Unrecognised diagram"));
+            return;
+        }
+        if (!(diagram instanceof PSystemError systemError)) {
+            return;
+        }
+        List<ErrorUml> errorsUml = new ArrayList<>(systemError.getErrorsUml());
+        errorsUml.sort(Comparator.comparingInt(ErrorUml::getPosition));
+        for (ErrorUml error : errorsUml) {
+            errors.add(new SyntaxCheckResult.SyntaxError(blockStartLine + error.getPosition(), error.getError()));
+        }
+        if (errorsUml.isEmpty()) {
+            errors.add(new SyntaxCheckResult.SyntaxError(
+                    blockStartLine + systemError.getHigherErrorPosition(), "Syntax error"));
+        }
+    }
+
+    /**
+     * 1-based line numbers of each {@code @start...} line, matching the order
+     * in which PlantUML extracts blocks.
+     */
+    private static List<Integer> blockStartLines(String source) {
+        List<Integer> lines = new ArrayList<>();
+        String[] sourceLines = source.split("\r\n|\r|\n", -1);
+        for (int i = 0; i < sourceLines.length; i++) {
+            if (sourceLines[i].trim().startsWith("@start")) {
+                lines.add(i + 1);
+            }
+        }
+        return lines;
+    }
+}
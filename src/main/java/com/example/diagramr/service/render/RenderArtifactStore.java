@@ -0,0 +1,250 @@
+package com.example.diagramr.service.render;
+
+import com.example.diagramr.exception.PlantUmlRenderingException;
+import com.example.diagramr.model.DiagramType;
+import com.example.diagramr.util.PlantUmlSourceHasher;
+import net.sourceforge.plantuml.FileFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * On-disk store of rendered artifacts for saved diagram sources. Files are
+ * content-addressed by the source hash, so identical versions share one
+ * artifact and a file never has to be invalidated. Missing artifacts are
+ * rendered on first use and written back.
+ */
+@Component
+public class RenderArtifactStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderArtifactStore.class);
+
+    private static final String THUMBNAIL_SUFFIX = "thumb.png";
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private final Path root;
+    private final PlantUmlRenderer plantUmlRenderer;
+    private final SvgMinifier svgMinifier;
+    private final int thumbnailMaxWidth;
+    private final int thumbnailMaxHeight;
+
+    public RenderArtifactStore(
+            @Value("${diagramr.artifacts.dir:data/artifacts}") String root,
+            @Value("${diagramr.thumbnails.max-width:320}") int thumbnailMaxWidth,
+            @Value("${diagramr.thumbnails.max-height:240}") int thumbnailMaxHeight,
+            PlantUmlRenderer plantUmlRenderer,
+            SvgMinifier svgMinifier) {
+        this.root = Paths.get(root).toAbsolutePath();
+        this.plantUmlRenderer = plantUmlRenderer;
+        this.svgMinifier = svgMinifier;
+        this.thumbnailMaxWidth = thumbnailMaxWidth;
+        this.thumbnailMaxHeight = thumbnailMaxHeight;
+        logger.info("Render artifacts are stored under {}", this.root);
+    }
+
+    /**
+     * Returns the artifact for the given source, rendering and persisting it
+     * if it does not exist yet. If the file cannot be written the rendered
+     * bytes are returned from memory instead.
+     */
+    public Resource resolve(String plantUmlCode, FileFormat format) throws PlantUmlRenderingException {
+        Path path = pathFor(PlantUmlSourceHasher.hash(plantUmlCode), format);
+        if (Files.isRegularFile(path)) {
+            return new FileSystemResource(path);
+        }
+
+        byte[] data = plantUmlRenderer.render(plantUmlCode, format).orThrow();
+        try {
+            write(path, data);
+            if (precompressible(format)) {
+                long gzipBytes = writeGzip(gzipPath(path), data);
+                svgMinifier.recordSize(DiagramType.fromCode(plantUmlCode).name(), "gzip", gzipBytes);
+            }
+            return new FileSystemResource(path);
+        } catch (IOException e) {
+            logger.error("Could not persist {} artifact to {}", format, path, e);
+            return new ByteArrayResource(data);
+        }
+    }
+
+    /**
+     * The stored artifact for a source hash, if it has been written.
+     */
+    public Optional<Resource> find(String sourceHash, FileFormat format) {
+        Path path = pathFor(sourceHash, format);
+        return Files.isRegularFile(path) ? Optional.of(new FileSystemResource(path)) : Optional.empty();
+    }
+
+    /**
+     * Eagerly renders the SVG and PNG artifacts for a saved source. Failures
+     * are logged only; the artifacts will be generated lazily on first read.
+     */
+    public void generate(String plantUmlCode) {
+        if (!PlantUmlRenderer.hasDelimiters(plantUmlCode)) {
+            return;
+        }
+        for (FileFormat format : new FileFormat[] { FileFormat.SVG, FileFormat.PNG }) {
+            try {
+                resolve(plantUmlCode, format);
+            } catch (PlantUmlRenderingException | RuntimeException e) {
+                logger.warn("Could not pre-generate {} artifact: {}", format, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The gzip variant of a stored artifact, served as is with
+     * {@code Content-Encoding: gzip}. Artifacts stored before variants
+     * existed get theirs on first use. Empty for formats that are already
+     * compressed, or when the artifact itself is not stored.
+     */
+    public Optional<Resource> findPrecompressed(String sourceHash, FileFormat format) {
+        if (!precompressible(format)) {
+            return Optional.empty();
+        }
+        Path path = pathFor(sourceHash, format);
+        Path gzipPath = gzipPath(path);
+        if (Files.isRegularFile(gzipPath)) {
+            return Optional.of(new FileSystemResource(gzipPath));
+        }
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        try {
+            writeGzip(gzipPath, Files.readAllBytes(path));
+            return Optional.of(new FileSystemResource(gzipPath));
+        } catch (IOException e) {
+            logger.warn("Could not write gzip variant {}: {}", gzipPath, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public Optional<Resource> findThumbnail(String sourceHash) {
+        Path path = pathFor(sourceHash, THUMBNAIL_SUFFIX);
+        return Files.isRegularFile(path) ? Optional.of(new FileSystemResource(path)) : Optional.empty();
+    }
+
+    /**
+     * Writes a small PNG preview scaled down from the PNG artifact, unless
+     * one already exists for the source. Thumbnails are written with the
+     * same content addressing as the full-size artifacts.
+     */
+    public void generateThumbnail(String plantUmlCode) throws PlantUmlRenderingException, IOException {
+        Path path = pathFor(PlantUmlSourceHasher.hash(plantUmlCode), THUMBNAIL_SUFFIX);
+        if (Files.isRegularFile(path)) {
+            return;
+        }
+
+        BufferedImage image;
+        try (InputStream in = resolve(plantUmlCode, FileFormat.PNG).getInputStream()) {
+            image = ImageIO.read(in);
+        }
+        if (image == null) {
+            throw new IOException("The PNG artifact could not be decoded");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(scaleDown(image, thumbnailMaxWidth, thumbnailMaxHeight), "png", out);
+        write(path, out.toByteArray());
+    }
+
+    /**
+     * Fits the image into the bounds, halving in steps first so that thin
+     * diagram lines survive better than with a single bilinear pass. Flattened
+     * onto white, which also keeps the PNG free of an alpha channel.
+     */
+    private static BufferedImage scaleDown(BufferedImage image, int maxWidth, int maxHeight) {
+        double scale = Math.min(1.0, Math.min((double) maxWidth / image.getWidth(),
+                (double) maxHeight / image.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage step = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = step.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            current = step;
+        } while (width > targetWidth || height > targetHeight);
+        return current;
+    }
+
+    // PNG is already deflated; only the text formats gain from a gzip variant
+    private static boolean precompressible(FileFormat format) {
+        return format == FileFormat.SVG;
+    }
+
+    private static Path gzipPath(Path artifact) {
+        return artifact.resolveSibling(artifact.getFileName() + GZIP_SUFFIX);
+    }
+
+    /**
+     * Compressed once at the highest level, since every later response
+     * reuses the file.
+     */
+    private long writeGzip(Path target, byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(data);
+        }
+        write(target, compressed.toByteArray());
+        return compressed.size();
+    }
+
+    private Path pathFor(String hash, FileFormat format) {
+        return pathFor(hash, format.name().toLowerCase(Locale.ROOT));
+    }
+
+    private Path pathFor(String hash, String suffix) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash + "." + suffix);
+    }
+
+    private void write(Path target, byte[] data) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            logger.debug("Wrote render artifact {} ({} bytes)", target, data.length);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.diagramr.service.render;
+
+import com.example.diagramr.exception.RenderRejectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent render tasks with a bounded number in flight and
+ * hands each result to the calling thread as soon as it finishes, in
+ * completion order. Tasks run on virtual threads that only wait on the
+ * {@link RenderExecutor}; the window keeps them from flooding its queue and
+ * bounds how many results are held at once. A task turned away because the
+ * render queue is full is retried after a short pause instead of failing.
+ */
+@Component
+public class RenderBatchExecutor implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderBatchExecutor.class);
+
+    private static final int MAX_REJECTED_RETRIES = 5;
+    private static final Duration REJECTED_BACKOFF = Duration.ofMillis(200);
+
+    private final ExecutorService workers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("render-batch-", 0).factory());
+    private final int window;
+
+    public RenderBatchExecutor(
+            RenderExecutor renderExecutor,
+            @Value("${diagramr.render.batch.window:0}") int window) {
+        // Two per render worker keeps the pool busy while results are being written out
+        this.window = window > 0 ? window : renderExecutor.getPoolSize() * 2;
+        logger.info("Render batches run with up to {} tasks in flight", this.window);
+    }
+
+    @FunctionalInterface
+    public interface Task<T, R> {
+        R run(T input) throws Exception;
+    }
+
+    /**
+     * Receives each finished task on the calling thread. Exactly one of
+     * {@code result} and {@code error} is set.
+     */
+    @FunctionalInterface
+    public interface Sink<T, R> {
+        void accept(T input, R result, Exception error) throws IOException;
+    }
+
+    /**
+     * Runs {@code task} for every input, pulling inputs lazily so that only
+     * the window's worth is ever materialised. Task failures go to the sink;
+     * a failing sink stops the batch, cancels the tasks still running and
+     * is rethrown. Returns the number of inputs processed.
+     */
+    public <T, R> int forEachCompleted(Iterator<T> inputs, Task<T, R> task, Sink<T, R> sink)
+            throws IOException, InterruptedException {
+        CompletionService<Outcome<T, R>> completion = new ExecutorCompletionService<>(workers);
+        Set<Future<Outcome<T, R>>> inFlight = new HashSet<>();
+        int processed = 0;
+        try {
+            while (inputs.hasNext() || !inFlight.isEmpty()) {
+                while (inFlight.size() < window && inputs.hasNext()) {
+                    T input = inputs.next();
+                    inFlight.add(completion.submit(() -> attempt(task, input)));
+                }
+                Future<Outcome<T, R>> done = completion.take();
+                inFlight.remove(done);
+                Outcome<T, R> outcome = outcome(done);
+                sink.accept(outcome.input(), outcome.result(), outcome.error());
+                processed++;
+            }
+        } finally {
+            if (!inFlight.isEmpty()) {
+                logger.info("Render batch stopped after {} items; cancelling {} in flight",
+                        processed, inFlight.size());
+                inFlight.forEach(future -> future.cancel(true));
+            }
+        }
+        return processed;
+    }
+
+    private static <T, R> Outcome<T, R> attempt(Task<T, R> task, T input) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return new Outcome<>(input, task.run(input), null);
+            } catch (RenderRejectedException e) {
+                if (attempt > MAX_REJECTED_RETRIES) {
+                    return new Outcome<>(input, null, e);
+                }
+                try {
+                    Thread.sleep(REJECTED_BACKOFF.multipliedBy(attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return new Outcome<>(input, null, interrupted);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Outcome<>(input, null, e);
+            } catch (Exception e) {
+                return new Outcome<>(input, null, e);
+            }
+        }
+    }
+
+    private static <T, R> Outcome<T, R> outcome(Future<Outcome<T, R>> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // attempt() catches every Exception, so only an Error gets here
+            throw new IllegalStateException("Render batch task failed", e.getCause());
+        }
+    }
+
+    private record Outcome<T, R>(T input, R result, Exception error) {
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.diagramr.service.render;
+
+import com.example.diagramr.util.PlantUmlSourceHasher;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import net.sourceforge.plantuml.FileFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-process cache of rendered diagrams keyed by the hash of the normalized
+ * PlantUML source and the output format. Entries are weighed by their byte
+ * size, and failures reported by PlantUML itself are kept as negative entries
+ * so that broken diagrams are not re-rendered on every request. Concurrent
+ * misses for the same key are coalesced: the first caller renders and the
+ * others wait for its result. The render runs outside Caffeine's compute,
+ * which would hold a lock for up to the render timeout.
+ */
+@Component
+public class RenderCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderCache.class);
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final Cache<String, RenderResult> cache;
+    // Renders in progress, so that concurrent misses for the same key wait for one render
+    private final ConcurrentHashMap<String, CompletableFuture<RenderResult>> inFlight = new ConcurrentHashMap<>();
+
+    public RenderCache(
+            @Value("${diagramr.render.cache.max-bytes:67108864}") long maxBytes,
+            MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, RenderResult result) -> weigh(result))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "plantuml-render");
+        logger.info("PlantUML render cache initialised with a budget of {} bytes", maxBytes);
+    }
+
+    public RenderResult get(String plantUmlCode, FileFormat format, Supplier<RenderResult> renderCall) {
+        String key = PlantUmlSourceHasher.hash(plantUmlCode) + ":" + format.name();
+        RenderResult cached = cache.getIfPresent(key);
+        if (cached != null) {
+            logger.debug("Render cache hit for {}", key);
+            return cached;
+        }
+
+        CompletableFuture<RenderResult> claim = new CompletableFuture<>();
+        CompletableFuture<RenderResult> running = inFlight.putIfAbsent(key, claim);
+        if (running != null) {
+            logger.debug("Waiting for the render already in flight for {}", key);
+            return await(running);
+        }
+        try {
+            // Another caller may have finished the render between the miss above and the claim
+            RenderResult result = cache.getIfPresent(key);
+            if (result == null) {
+                result = renderCall.get();
+                // IO and unexpected errors are not a property of the source; retry them on the next request.
+                if (!result.transientFailure()) {
+                    cache.put(key, result);
+                }
+            }
+            claim.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            claim.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, claim);
+        }
+    }
+
+    /**
+     * The result of another caller's render, or the exception it failed
+     * with, such as a full render queue.
+     */
+    private static RenderResult await(CompletableFuture<RenderResult> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The cached result for the source, including cached failures, without
+     * rendering.
+     */
+    public Optional<RenderResult> peek(String plantUmlCode, FileFormat format) {
+        return Optional.ofNullable(cache.getIfPresent(PlantUmlSourceHasher.hash(plantUmlCode) + ":" + format.name()));
+    }
+
+    /**
+     * Caches a result produced outside {@link #get}; transient failures are
+     * ignored as they are there.
+     */
+    public void put(String plantUmlCode, RenderResult result) {
+        if (!result.transientFailure()) {
+            cache.put(PlantUmlSourceHasher.hash(plantUmlCode) + ":" + result.format().name(), result);
+        }
+    }
+
+    /**
+     * A cached successful render for the source hash, without rendering.
+     */
+    public Optional<RenderResult> getIfPresent(String sourceHash, FileFormat format) {
+        return Optional.ofNullable(cache.getIfPresent(sourceHash + ":" + format.name()))
+                .filter(RenderResult::isValid);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static int weigh(RenderResult result) {
+        long size = ENTRY_OVERHEAD_BYTES
+                + (result.output() != null ? result.output().length : 0)
+                + (result.description() != null ? result.description().length() * 2L : 0)
+                + (result.errorMessage() != null ? result.errorMessage().length() * 2L : 0);
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.diagramr.service.render;
+
+import com.example.diagramr.exception.RenderRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Dedicated pool for CPU-bound PlantUML work, so that a burst of large
+ * diagrams cannot occupy every servlet thread. The queue is bounded; when it
+ * is full, submissions fail fast with {@link RenderRejectedException}, which
+ * is reported to clients as HTTP 429. Callers only park on a future, so
+ * virtual-thread request handlers never run PlantUML on their carrier.
+ */
+@Component
+public class RenderExecutor implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Duration timeout;
+    private final Duration retryAfter;
+    private final Timer waitTimer;
+    private final Counter rejectedCounter;
+    private final Counter timeoutCounter;
+
+    public RenderExecutor(
+            @Value("${diagramr.render.workers:0}") int workers,
+            @Value("${diagramr.render.queue-capacity:64}") int queueCapacity,
+            @Value("${diagramr.render.timeout:30s}") Duration timeout,
+            @Value("${diagramr.render.retry-after:5s}") Duration retryAfter,
+            MeterRegistry meterRegistry) {
+        int poolSize = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                // Always platform threads, even in virtual-thread mode: rendering is CPU-bound and
+                // PlantUML synchronizes internally, which would pin virtual-thread carriers.
+                Thread.ofPlatform().name("plantuml-render-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.timeout = timeout;
+        this.retryAfter = retryAfter;
+
+        Gauge.builder("diagramr.render.queue.depth", executor, e -> e.getQueue().size())
+                .description("Render tasks waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("diagramr.render.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Render tasks currently running")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("diagramr.render.wait")
+                .description("Time a render task spent queued before a worker picked it up")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("diagramr.render.rejected")
+                .description("Render tasks rejected because the queue was full")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("diagramr.render.timeouts")
+                .description("Render tasks abandoned after exceeding the deadline")
+                .register(meterRegistry);
+
+        logger.info("Render executor started with {} workers, queue capacity {} and timeout {}",
+                poolSize, queueCapacity, timeout);
+    }
+
+    /**
+     * Runs the task on the render pool and waits up to the configured
+     * deadline. On timeout the task is cancelled and {@link TimeoutException}
+     * is thrown; a full queue raises {@link RenderRejectedException}.
+     */
+    public <T> T execute(Callable<T> task) throws TimeoutException, ExecutionException, InterruptedException {
+        Future<T> future = submit(task);
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            cancelTimedOut(future);
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        long submittedAt = System.nanoTime();
+        try {
+            return executor.submit(() -> {
+                waitTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                return task.call();
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            logger.warn("Render queue is full ({} waiting); rejecting render request", executor.getQueue().size());
+            throw new RenderRejectedException("The diagram renderer is busy. Please retry shortly.", retryAfter);
+        }
+    }
+
+    /**
+     * Cancels a task whose caller stopped waiting at the deadline and counts
+     * it as a timeout.
+     */
+    public void cancelTimedOut(Future<?> future) {
+        future.cancel(true);
+        timeoutCounter.increment();
+        logger.warn("Render task exceeded the {} deadline and was cancelled", timeout);
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public int getPoolSize() {
+        return executor.getCorePoolSize();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
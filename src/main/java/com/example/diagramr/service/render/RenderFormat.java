@@ -0,0 +1,53 @@
+package com.example.diagramr.service.render;
+
+import net.sourceforge.plantuml.FileFormat;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * The PlantUML output formats offered for download, with the name used in
+ * URLs, the response content type and the file extension.
+ */
+public enum RenderFormat {
+    SVG("svg", FileFormat.SVG, "image/svg+xml", "svg"),
+    PNG("png", FileFormat.PNG, "image/png", "png"),
+    EPS("eps", FileFormat.EPS, "application/postscript", "eps"),
+    UTXT("utxt", FileFormat.UTXT, "text/plain;charset=UTF-8", "txt"),
+    ATXT("atxt", FileFormat.ATXT, "text/plain;charset=US-ASCII", "txt"),
+    LATEX("latex", FileFormat.LATEX, "application/x-latex", "tex");
+
+    private final String urlName;
+    private final FileFormat fileFormat;
+    private final String contentType;
+    private final String extension;
+
+    RenderFormat(String urlName, FileFormat fileFormat, String contentType, String extension) {
+        this.urlName = urlName;
+        this.fileFormat = fileFormat;
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public static Optional<RenderFormat> fromUrlName(String name) {
+        return Arrays.stream(values())
+                .filter(format -> format.urlName.equalsIgnoreCase(name))
+                .findFirst();
+    }
+
+    public String getUrlName() {
+        return urlName;
+    }
+
+    public FileFormat getFileFormat() {
+        return fileFormat;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
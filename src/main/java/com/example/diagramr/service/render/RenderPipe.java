@@ -0,0 +1,133 @@
+package com.example.diagramr.service.render;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Hands a streamed render from a render worker to the request thread in
+ * bounded chunks, so the worker never touches the response itself. The
+ * worker writes to {@link #sink()}; the request thread copies chunks to the
+ * client with {@link #drainTo(OutputStream)}. Both sides give up at the
+ * same deadline, so a slow client holds a render worker for no longer than
+ * a render may take. Once the request thread calls {@link #abandon()},
+ * every further write by the worker fails.
+ */
+final class RenderPipe {
+
+    private static final int CHUNK_BYTES = 8192;
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks;
+    private final long deadlineNanos;
+    private final Sink sink = new Sink();
+    private volatile boolean abandoned;
+
+    RenderPipe(int maxChunks, Duration timeout) {
+        this.chunks = new ArrayBlockingQueue<>(maxChunks);
+        this.deadlineNanos = System.nanoTime() + timeout.toNanos();
+    }
+
+    /**
+     * The worker's end of the pipe.
+     */
+    OutputStream sink() {
+        return sink;
+    }
+
+    /**
+     * Called by the worker once PlantUML has returned, whether or not it
+     * succeeded, to pass on the last partial chunk and end the stream.
+     */
+    void finish() throws IOException {
+        sink.flushChunk();
+        put(END);
+    }
+
+    /**
+     * Copies chunks to {@code target} on the calling thread until the worker
+     * finishes. Throws {@link TimeoutException} if it has not finished by
+     * the deadline.
+     */
+    void drainTo(OutputStream target) throws IOException, TimeoutException, InterruptedException {
+        while (true) {
+            byte[] chunk = chunks.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (chunk == null) {
+                throw new TimeoutException();
+            }
+            if (chunk == END) {
+                return;
+            }
+            target.write(chunk);
+        }
+    }
+
+    /**
+     * Stops accepting output. A worker blocked on a full pipe is released
+     * and fails on its next write.
+     */
+    void abandon() {
+        abandoned = true;
+        chunks.clear();
+    }
+
+    private void put(byte[] chunk) throws IOException {
+        if (abandoned) {
+            throw new IOException("The request stopped reading the render output");
+        }
+        try {
+            if (!chunks.offer(chunk, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new IOException("The render output was not read before the deadline");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while passing on render output");
+        }
+        if (abandoned) {
+            chunks.clear();
+            throw new IOException("The request stopped reading the render output");
+        }
+    }
+
+    private final class Sink extends OutputStream {
+        private final byte[] buffer = new byte[CHUNK_BYTES];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            byte[] chunk = Arrays.copyOf(buffer, count);
+            count = 0;
+            put(chunk);
+        }
+    }
+}
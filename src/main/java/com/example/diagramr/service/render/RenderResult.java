@@ -0,0 +1,49 @@
+package com.example.diagramr.service.render;
+
+import com.example.diagramr.exception.PlantUmlRenderingException;
+import net.sourceforge.plantuml.FileFormat;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Outcome of a single PlantUML render: the image bytes, the description
+ * PlantUML reported and, if the render failed, the error message.
+ *
+ * @param transientFailure true when the failure came from IO or an unexpected
+ *                         error rather than from the source itself, in which
+ *                         case the result must not be cached
+ */
+public record RenderResult(
+        FileFormat format,
+        byte[] output,
+        String description,
+        String errorMessage,
+        boolean transientFailure) {
+
+    public static RenderResult success(FileFormat format, byte[] output, String description) {
+        return new RenderResult(format, output, description, null, false);
+    }
+
+    public static RenderResult failure(FileFormat format, String description, String errorMessage) {
+        return new RenderResult(format, null, description, errorMessage, false);
+    }
+
+    public static RenderResult transientFailure(FileFormat format, String errorMessage) {
+        return new RenderResult(format, null, null, errorMessage, true);
+    }
+
+    public boolean isValid() {
+        return errorMessage == null;
+    }
+
+    public String asText() {
+        return output != null ? new String(output, StandardCharsets.UTF_8) : null;
+    }
+
+    public byte[] orThrow() throws PlantUmlRenderingException {
+        if (!isValid()) {
+            throw new PlantUmlRenderingException(errorMessage);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.diagramr.service.render;
+
+import com.example.diagramr.model.DiagramType;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shrinks PlantUML's SVG output with two streaming StAX passes. The first
+ * counts inline style values; the second drops the prolog, comments and
+ * whitespace between elements, rounds coordinates to the configured number
+ * of decimals, and moves every style used more than once into a single
+ * {@code <style>} rule. Class names carry a prefix derived from the
+ * document, so several inlined diagrams on one page cannot clash.
+ */
+@Component
+public class SvgMinifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(SvgMinifier.class);
+
+    private static final QName STYLE = new QName("style");
+    private static final Pattern DECIMAL = Pattern.compile("-?\\d*\\.\\d+(?:[eE][-+]?\\d+)?");
+    private static final Set<String> NUMERIC_ATTRIBUTES = Set.of(
+            "x", "y", "x1", "y1", "x2", "y2", "cx", "cy", "r", "rx", "ry", "dx", "dy",
+            "width", "height", "points", "d", "transform", "textLength", "viewBox");
+    // Whitespace inside these is part of the rendered text
+    private static final Set<String> TEXT_ELEMENTS = Set.of("text", "tspan", "title", "desc", "style");
+
+    private final boolean enabled;
+    private final int precision;
+    private final MeterRegistry meterRegistry;
+    private final XMLInputFactory inputFactory;
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+    private final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+
+    public SvgMinifier(
+            @Value("${diagramr.svg.minify.enabled:true}") boolean enabled,
+            @Value("${diagramr.svg.minify.precision:2}") int precision,
+            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.precision = precision;
+        this.meterRegistry = meterRegistry;
+        this.inputFactory = XMLInputFactory.newFactory();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The minified SVG, or the input unchanged when minification is off or
+     * fails. Records the size before and after per diagram type.
+     */
+    public byte[] optimize(String plantUmlCode, byte[] svg) {
+        if (!enabled) {
+            return svg;
+        }
+        try {
+            byte[] minified = minify(svg);
+            String type = DiagramType.fromCode(plantUmlCode).name();
+            recordSize(type, "raw", svg.length);
+            recordSize(type, "minified", minified.length);
+            logger.debug("Minified {} SVG from {} to {} bytes", type, svg.length, minified.length);
+            return minified;
+        } catch (XMLStreamException | RuntimeException e) {
+            logger.warn("Could not minify SVG; keeping PlantUML's output: {}", e.getMessage());
+            return svg;
+        }
+    }
+
+    /**
+     * Size of one stage of a diagram's SVG (raw, minified, gzip), so the
+     * savings of each stage can be compared per diagram type.
+     */
+    public void recordSize(String diagramType, String stage, long bytes) {
+        DistributionSummary.builder("diagramr.svg.bytes")
+                .description("SVG size per processing stage")
+                .baseUnit("bytes")
+                .tag("type", diagramType)
+                .tag("stage", stage)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    byte[] minify(byte[] svg) throws XMLStreamException {
+        Map<String, String> styleClasses = styleClasses(svg);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(svg.length / 2);
+        XMLEventReader reader = inputFactory.createXMLEventReader(new ByteArrayInputStream(svg));
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+        int depth = 0;
+        int textDepth = 0;
+        try {
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                switch (event.getEventType()) {
+                    case XMLEvent.START_ELEMENT -> {
+                        StartElement start = event.asStartElement();
+                        if (textDepth > 0 || TEXT_ELEMENTS.contains(start.getName().getLocalPart())) {
+                            textDepth++;
+                        }
+                        // Childless elements are written as <x/> and their end event is consumed here
+                        boolean empty = depth > 0 && reader.peek() != null && reader.peek().isEndElement();
+                        writeStart(writer, rewrite(start, styleClasses), empty);
+                        if (empty) {
+                            reader.nextEvent();
+                            if (textDepth > 0) {
+                                textDepth--;
+                            }
+                        } else {
+                            if (depth == 0 && !styleClasses.isEmpty()) {
+                                writeStyleSheet(writer, styleClasses);
+                            }
+                            depth++;
+                        }
+                    }
+                    case XMLEvent.END_ELEMENT -> {
+                        depth--;
+                        if (textDepth > 0) {
+                            textDepth--;
+                        }
+                        writer.writeEndElement();
+                    }
+                    case XMLEvent.CHARACTERS, XMLEvent.CDATA, XMLEvent.SPACE -> {
+                        Characters characters = event.asCharacters();
+                        if (characters.isCData()) {
+                            writer.writeCData(characters.getData());
+                        } else if (textDepth > 0 || !characters.isWhiteSpace()) {
+                            writer.writeCharacters(characters.getData());
+                        }
+                    }
+                    default -> {
+                        // Prolog, comments, processing instructions and DTDs are not needed to display the image
+                    }
+                }
+            }
+            writer.flush();
+        } finally {
+            writer.close();
+            reader.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * First pass: a class name for each normalized style value that occurs
+     * more than once.
+     */
+    private Map<String, String> styleClasses(byte[] svg) throws XMLStreamException {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        XMLEventReader reader = inputFactory.createXMLEventReader(new ByteArrayInputStream(svg));
+        try {
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    Attribute style = event.asStartElement().getAttributeByName(STYLE);
+                    if (style != null) {
+                        counts.merge(minifyStyle(style.getValue()), 1, Integer::sum);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        String prefix = "d" + Integer.toString(Arrays.hashCode(svg) & 0xfffff, 36) + "-";
+        Map<String, String> classes = new LinkedHashMap<>();
+        counts.forEach((style, count) -> {
+            if (count > 1 && !style.isEmpty()) {
+                classes.put(style, prefix + classes.size());
+            }
+        });
+        return classes;
+    }
+
+    private StartElement rewrite(StartElement start, Map<String, String> styleClasses) {
+        List<Attribute> attributes = new ArrayList<>();
+        String styleClass = null;
+        Attribute existingClass = null;
+        for (Iterator<Attribute> it = start.getAttributes(); it.hasNext(); ) {
+            Attribute attribute = it.next();
+            String name = attribute.getName().getLocalPart();
+            boolean unqualified = attribute.getName().getNamespaceURI().isEmpty();
+            String value = attribute.getValue();
+            if (unqualified && "style".equals(name)) {
+                value = minifyStyle(value);
+                styleClass = styleClasses.get(value);
+                if (styleClass != null) {
+                    continue;
+                }
+            } else if (unqualified && "class".equals(name)) {
+                existingClass = attribute;
+                continue;
+            } else if (unqualified && NUMERIC_ATTRIBUTES.contains(name)) {
+                value = roundNumbers(value);
+            }
+            attributes.add(eventFactory.createAttribute(attribute.getName(), value));
+        }
+
+        if (styleClass != null || existingClass != null) {
+            String classes = existingClass == null ? styleClass
+                    : styleClass == null ? existingClass.getValue()
+                    : existingClass.getValue() + " " + styleClass;
+            attributes.add(eventFactory.createAttribute("class", classes));
+        }
+        return eventFactory.createStartElement(start.getName(), attributes.iterator(), start.getNamespaces());
+    }
+
+    private static void writeStart(XMLStreamWriter writer, StartElement start, boolean empty)
+            throws XMLStreamException {
+        QName name = start.getName();
+        if (empty) {
+            writer.writeEmptyElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+        } else {
+            writer.writeStartElement(name.getPrefix(), name.getLocalPart(), name.getNamespaceURI());
+        }
+        for (Iterator<Namespace> it = start.getNamespaces(); it.hasNext(); ) {
+            Namespace namespace = it.next();
+            if (namespace.isDefaultNamespaceDeclaration()) {
+                writer.writeDefaultNamespace(namespace.getNamespaceURI());
+            } else {
+                writer.writeNamespace(namespace.getPrefix(), namespace.getNamespaceURI());
+            }
+        }
+        for (Iterator<Attribute> it = start.getAttributes(); it.hasNext(); ) {
+            Attribute attribute = it.next();
+            QName attributeName = attribute.getName();
+            if (attributeName.getNamespaceURI().isEmpty()) {
+                writer.writeAttribute(attributeName.getLocalPart(), attribute.getValue());
+            } else {
+                writer.writeAttribute(attributeName.getPrefix(), attributeName.getNamespaceURI(),
+                        attributeName.getLocalPart(), attribute.getValue());
+            }
+        }
+    }
+
+    private static void writeStyleSheet(XMLStreamWriter writer, Map<String, String> styleClasses)
+            throws XMLStreamException {
+        StringBuilder css = new StringBuilder();
+        styleClasses.forEach((style, className) -> css.append('.').append(className)
+                .append('{').append(style).append('}'));
+        writer.writeStartElement("style");
+        writer.writeCharacters(css.toString());
+        writer.writeEndElement();
+    }
+
+    /**
+     * "stroke: #A80036; stroke-width: 1.0;" becomes "stroke:#A80036;stroke-width:1".
+     */
+    private String minifyStyle(String style) {
+        StringBuilder result = new StringBuilder(style.length());
+        for (String declaration : style.split(";")) {
+            int colon = declaration.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            if (!result.isEmpty()) {
+                result.append(';');
+            }
+            result.append(declaration.substring(0, colon).trim()).append(':')
+                    .append(roundNumbers(declaration.substring(colon + 1).trim()));
+        }
+        return result.toString();
+    }
+
+    private String roundNumbers(String value) {
+        Matcher matcher = DECIMAL.matcher(value);
+        StringBuilder result = new StringBuilder(value.length());
+        while (matcher.find()) {
+            String rounded = new BigDecimal(matcher.group())
+                    .setScale(precision, RoundingMode.HALF_UP)
+                    .stripTrailingZeros()
+                    .toPlainString();
+            matcher.appendReplacement(result, rounded);
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.diagramr.service.render;
+
+import java.util.List;
+
+/**
+ * Outcome of a parse-only syntax check.
+ *
+ * @param errors        parse errors with 1-based line numbers in the checked source
+ * @param elapsedMicros time spent extracting and parsing the blocks
+ */
+public record SyntaxCheckResult(boolean valid, List<SyntaxError> errors, long elapsedMicros) {
+
+    public record SyntaxError(int line, String message) {
+    }
+
+    public static SyntaxCheckResult valid(long elapsedMicros) {
+        return new SyntaxCheckResult(true, List.of(), elapsedMicros);
+    }
+
+    public static SyntaxCheckResult invalid(List<SyntaxError> errors, long elapsedMicros) {
+        return new SyntaxCheckResult(false, List.copyOf(errors), elapsedMicros);
+    }
+
+    /**
+     * The first error formatted for display, or null when the source is valid.
+     */
+    public String errorMessage() {
+        if (errors.isEmpty()) {
+            return null;
+        }
+        SyntaxError first = errors.get(0);
+        return "Line " + first.line() + ": " + first.message();
+    }
+}
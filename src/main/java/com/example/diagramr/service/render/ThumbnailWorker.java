@@ -0,0 +1,121 @@
+package com.example.diagramr.service.render;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates list-page thumbnails in the background. Requests are keyed by
+ * diagram and held for a short debounce period; a later request for the
+ * same diagram replaces the pending source and pushes the deadline back,
+ * so a burst of edits produces a single thumbnail render of the final
+ * source. The number of pending diagrams is bounded and requests beyond it
+ * are dropped, since a missing thumbnail is requested again on the next
+ * list view.
+ */
+@Component
+public class ThumbnailWorker implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailWorker.class);
+
+    private record Pending(String plantUmlCode, long dueNanos) {
+    }
+
+    private final RenderArtifactStore renderArtifactStore;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final Duration debounce;
+    private final int capacity;
+    private final Counter coalescedCounter;
+    private final Counter droppedCounter;
+    private final Counter failedCounter;
+
+    public ThumbnailWorker(
+            RenderArtifactStore renderArtifactStore,
+            @Value("${diagramr.thumbnails.workers:1}") int workers,
+            @Value("${diagramr.thumbnails.debounce:2s}") Duration debounce,
+            @Value("${diagramr.thumbnails.queue-capacity:1000}") int capacity,
+            MeterRegistry meterRegistry) {
+        this.renderArtifactStore = renderArtifactStore;
+        this.debounce = debounce;
+        this.capacity = capacity;
+        this.scheduler = new ScheduledThreadPoolExecutor(workers,
+                Thread.ofPlatform().name("thumbnail-", 0).daemon(true).factory());
+        this.scheduler.setRemoveOnCancelPolicy(true);
+
+        Gauge.builder("diagramr.thumbnails.pending", pending, ConcurrentHashMap::size)
+                .description("Diagrams waiting for a thumbnail")
+                .register(meterRegistry);
+        this.coalescedCounter = Counter.builder("diagramr.thumbnails.coalesced")
+                .description("Thumbnail requests merged into one already pending for the diagram")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("diagramr.thumbnails.dropped")
+                .description("Thumbnail requests dropped because too many were pending")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("diagramr.thumbnails.failed")
+                .description("Thumbnails that could not be generated")
+                .register(meterRegistry);
+
+        logger.info("Thumbnail worker started with {} workers, debounce {} and capacity {}",
+                workers, debounce, capacity);
+    }
+
+    public void submit(Long diagramId, String plantUmlCode) {
+        if (!PlantUmlRenderer.hasDelimiters(plantUmlCode)) {
+            return;
+        }
+        Pending next = new Pending(plantUmlCode, System.nanoTime() + debounce.toNanos());
+        if (pending.put(diagramId, next) != null) {
+            // The task already scheduled for this diagram picks up the latest source
+            coalescedCounter.increment();
+            return;
+        }
+        if (pending.size() > capacity) {
+            pending.remove(diagramId, next);
+            droppedCounter.increment();
+            logger.warn("Thumbnail queue is full; dropping thumbnail for diagram id {}", diagramId);
+            return;
+        }
+        scheduler.schedule(() -> run(diagramId), debounce.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void run(Long diagramId) {
+        Pending current = pending.get(diagramId);
+        if (current == null) {
+            return;
+        }
+        long remaining = current.dueNanos() - System.nanoTime();
+        if (remaining > 0) {
+            scheduler.schedule(() -> run(diagramId), remaining, TimeUnit.NANOSECONDS);
+            return;
+        }
+        if (!pending.remove(diagramId, current)) {
+            // Replaced since the read above; wait out the new deadline
+            run(diagramId);
+            return;
+        }
+
+        try {
+            renderArtifactStore.generateThumbnail(current.plantUmlCode());
+            logger.debug("Generated thumbnail for diagram id {}", diagramId);
+        } catch (Exception e) {
+            failedCounter.increment();
+            logger.warn("Could not generate thumbnail for diagram id {}: {}", diagramId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+}
@@ -2,7 +2,6 @@ package com.example.diagramr.service.user;
 
 import com.example.diagramr.model.User;
 import com.example.diagramr.repository.UserRepository;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -23,11 +22,12 @@ public class UserService implements UserDetailsService {
     }
 
     @Override
-    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+    public AuthenticatedUser loadUserByUsername(String username) throws UsernameNotFoundException {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found with username: " + username));
 
-        return new org.springframework.security.core.userdetails.User(
+        return new AuthenticatedUser(
+                user.getId(),
                 user.getUsername(),
                 user.getPassword(),
                 Collections.emptyList());
@@ -49,4 +49,12 @@ public class UserService implements UserDetailsService {
     public Optional<User> getUserByUsername(String username) {
         return userRepository.findByUsername(username);
     }
+
+    /**
+     * Reference to the user for setting an owner; does not query the users
+     * table.
+     */
+    public User getReference(AuthenticatedUser authenticatedUser) {
+        return userRepository.getReferenceById(authenticatedUser.getId());
+    }
 }
\ No newline at end of file
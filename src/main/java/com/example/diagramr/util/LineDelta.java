@@ -0,0 +1,147 @@
+package com.example.diagramr.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Line-level deltas between two texts, computed with Myers' O(ND) diff.
+ * The encoded form is itself line-based:
+ * <pre>
+ * =n   copy the next n lines of the base
+ * -n   skip the next n lines of the base
+ * +n   followed by n literal lines to insert
+ * </pre>
+ */
+public final class LineDelta {
+
+    private static final char COPY = '=';
+    private static final char SKIP = '-';
+    private static final char INSERT = '+';
+
+    private LineDelta() {
+    }
+
+    /**
+     * Encodes {@code target} as a delta against {@code base}, or returns null
+     * when the texts differ in more than {@code maxEdits} lines and a full
+     * copy is the better choice.
+     */
+    public static String diff(String base, String target, int maxEdits) {
+        String[] a = lines(base);
+        String[] b = lines(target);
+        List<Character> script = editScript(a, b, maxEdits);
+        if (script == null) {
+            return null;
+        }
+
+        StringBuilder delta = new StringBuilder();
+        int y = 0;
+        int i = 0;
+        while (i < script.size()) {
+            char op = script.get(i);
+            int run = 1;
+            while (i + run < script.size() && script.get(i + run) == op) {
+                run++;
+            }
+            delta.append(op).append(run).append('\n');
+            if (op == INSERT) {
+                for (int j = 0; j < run; j++) {
+                    delta.append(b[y++]).append('\n');
+                }
+            } else if (op == COPY) {
+                y += run;
+            }
+            i += run;
+        }
+        return delta.toString();
+    }
+
+    public static String apply(String base, String delta) {
+        String[] a = lines(base);
+        String[] ops = delta.split("\n", -1);
+        List<String> result = new ArrayList<>(a.length);
+        int x = 0;
+        int i = 0;
+        while (i < ops.length && !ops[i].isEmpty()) {
+            char op = ops[i].charAt(0);
+            int count = Integer.parseInt(ops[i].substring(1));
+            i++;
+            switch (op) {
+                case COPY -> {
+                    result.addAll(Arrays.asList(a).subList(x, x + count));
+                    x += count;
+                }
+                case SKIP -> x += count;
+                case INSERT -> {
+                    result.addAll(Arrays.asList(ops).subList(i, i + count));
+                    i += count;
+                }
+                default -> throw new IllegalArgumentException("Corrupt delta operation: " + ops[i - 1]);
+            }
+        }
+        return String.join("\n", result);
+    }
+
+    private static String[] lines(String text) {
+        return text == null ? new String[0] : text.split("\n", -1);
+    }
+
+    /**
+     * Shortest edit script as one op per line, or null if it needs more than
+     * {@code maxEdits} insertions and deletions.
+     */
+    private static List<Character> editScript(String[] a, String[] b, int maxEdits) {
+        int n = a.length;
+        int m = b.length;
+        int max = Math.min(n + m, maxEdits);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+
+        for (int d = 0; d <= max; d++) {
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[x].equals(b[y])) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(trace, offset, n, m);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<Character> backtrack(List<int[]> trace, int offset, int n, int m) {
+        List<Character> script = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) ? k + 1 : k - 1;
+            int prevX = v[offset + prevK];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                script.add(COPY);
+                x--;
+                y--;
+            }
+            if (d > 0) {
+                script.add(x == prevX ? INSERT : SKIP);
+            }
+            x = prevX;
+            y = prevY;
+        }
+        Collections.reverse(script);
+        return script;
+    }
+}
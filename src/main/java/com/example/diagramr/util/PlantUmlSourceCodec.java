@@ -0,0 +1,158 @@
+package com.example.diagramr.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary encoding of PlantUML source for storage. The first byte names the
+ * format, so rows in different formats can coexist during a migration:
+ * <ul>
+ *   <li>{@code 0x00}: raw UTF-8</li>
+ *   <li>{@code 0x01}: zlib deflate with the v1 preset dictionary</li>
+ *   <li>anything else: legacy UTF-8 text converted in place from a TEXT
+ *   column; PlantUML source never starts with a control byte</li>
+ * </ul>
+ * The dictionary is part of the format: changing it requires a new format
+ * byte, never an edit of {@link #DICTIONARY_V1}.
+ */
+public final class PlantUmlSourceCodec {
+
+    public static final byte FORMAT_RAW = 0x00;
+    public static final byte FORMAT_DEFLATE_V1 = 0x01;
+
+    // Sources this short rarely shrink enough to pay for the zlib header
+    private static final int MIN_COMPRESS_BYTES = 64;
+
+    /**
+     * Preset dictionary built from recurring PlantUML keywords, skinparams
+     * and arrow syntax; deflate favours matches near the end, so the most
+     * common strings come last.
+     */
+    private static final byte[] DICTIONARY_V1 = """
+            skinparam shadowing false
+            skinparam monochrome true
+            skinparam linetype ortho
+            skinparam backgroundColor #FFFFFF
+            skinparam defaultFontName Arial
+            skinparam classAttributeIconSize 0
+            skinparam sequenceMessageAlign center
+            skinparam ArrowColor #333333
+            skinparam BorderColor #333333
+            left to right direction
+            top to bottom direction
+            hide empty members
+            autonumber
+            activate deactivate
+            database queue cloud node folder frame
+            rectangle package component interface
+            enum abstract class extends implements
+            state [*] --> : note right of note left of end note
+            start stop endif else (no) then (yes) if (
+            alt else end loop opt par group ref over
+            actor participant boundary control entity
+            usecase (
+            title legend header footer caption
+            : String
+            : Long
+            : Integer
+            : boolean
+            : void
+            : Date
+            : List<
+            +get
+            +set
+            -id: Long
+            -name: String
+            "1" -- "many"
+            "1" *-- "many"
+            ..> : includes
+            <|-- <|.. o-- *-- ..> --> -> <-- <- -- ..
+            @startuml
+            @enduml
+            """.getBytes(StandardCharsets.UTF_8);
+
+    private PlantUmlSourceCodec() {
+    }
+
+    public static byte[] encode(String source, boolean compress) {
+        if (source == null) {
+            return null;
+        }
+        byte[] utf8 = source.getBytes(StandardCharsets.UTF_8);
+        if (compress && utf8.length >= MIN_COMPRESS_BYTES) {
+            byte[] deflated = deflate(utf8);
+            if (deflated.length < utf8.length + 1) {
+                return deflated;
+            }
+        }
+        byte[] raw = new byte[utf8.length + 1];
+        raw[0] = FORMAT_RAW;
+        System.arraycopy(utf8, 0, raw, 1, utf8.length);
+        return raw;
+    }
+
+    public static String decode(byte[] stored) {
+        if (stored == null) {
+            return null;
+        }
+        if (stored.length == 0) {
+            return "";
+        }
+        return switch (stored[0]) {
+            case FORMAT_RAW -> new String(stored, 1, stored.length - 1, StandardCharsets.UTF_8);
+            case FORMAT_DEFLATE_V1 -> inflate(stored);
+            default -> new String(stored, StandardCharsets.UTF_8);
+        };
+    }
+
+    public static byte format(byte[] stored) {
+        return stored == null || stored.length == 0 ? FORMAT_RAW : stored[0];
+    }
+
+    private static byte[] deflate(byte[] utf8) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setDictionary(DICTIONARY_V1);
+            deflater.setInput(utf8);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 2 + 16);
+            out.write(FORMAT_DEFLATE_V1);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String inflate(byte[] stored) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, 1, stored.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY_V1);
+                    } else if (inflater.needsInput()) {
+                        throw new IllegalStateException("Truncated compressed PlantUML source");
+                    }
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed PlantUML source", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.diagramr.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public final class PlantUmlSourceHasher {
+
+    private PlantUmlSourceHasher() {
+    }
+
+    /**
+     * Normalizes line endings and surrounding whitespace so that sources which
+     * render identically produce the same hash.
+     */
+    public static String normalize(String plantUmlCode) {
+        if (plantUmlCode == null) {
+            return "";
+        }
+        return plantUmlCode.replace("\r\n", "\n").replace('\r', '\n').trim();
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 of the normalized PlantUML source.
+     */
+    public static String hash(String plantUmlCode) {
+        return sha256Hex(normalize(plantUmlCode));
+    }
+
+    public static String sha256Hex(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hashed = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hashed);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -1,41 +1,45 @@
 package com.example.diagramr.util;
 
-import net.sourceforge.plantuml.SourceStringReader;
-import net.sourceforge.plantuml.FileFormatOption;
+import com.example.diagramr.service.render.PlantUmlRenderer;
+import com.example.diagramr.service.render.PlantUmlSyntaxChecker;
+import com.example.diagramr.service.render.RenderResult;
+import com.example.diagramr.service.render.SyntaxCheckResult;
 import net.sourceforge.plantuml.FileFormat;
 import org.springframework.stereotype.Component;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 
 @Component
 public class PlantUmlValidator {
+
+    private final PlantUmlRenderer plantUmlRenderer;
+    private final PlantUmlSyntaxChecker syntaxChecker;
+
+    public PlantUmlValidator(PlantUmlRenderer plantUmlRenderer, PlantUmlSyntaxChecker syntaxChecker) {
+        this.plantUmlRenderer = plantUmlRenderer;
+        this.syntaxChecker = syntaxChecker;
+    }
+
+    /**
+     * Validates the code by rendering it to SVG once. The returned result
+     * carries the SVG, PlantUML's description and the error message, so
+     * callers do not need to render again. Source with syntax errors is
+     * rejected by the parser before any rendering happens.
+     */
+    public RenderResult validate(String plantUmlCode) {
+        return plantUmlRenderer.render(plantUmlCode, FileFormat.SVG);
+    }
+
+    /**
+     * Parse-only check; does not render.
+     */
+    public SyntaxCheckResult checkSyntax(String plantUmlCode) {
+        return syntaxChecker.check(plantUmlCode);
+    }
+
     public boolean isValid(String plantUmlCode) {
-        if (plantUmlCode == null || !plantUmlCode.trim().startsWith("@startuml") || !plantUmlCode.trim().endsWith("@enduml")) {
-            return false;
-        }
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
-            SourceStringReader reader = new SourceStringReader(plantUmlCode);
-            reader.generateImage(os, new FileFormatOption(FileFormat.PNG));
-            return os.size() > 0;
-        } catch (IOException e) {
-             return false;
-        } catch (Exception e) {
-            return false;
-        }
+        return checkSyntax(plantUmlCode).valid();
     }
 
     public String getErrorMessage(String plantUmlCode) {
-        if (plantUmlCode == null || !plantUmlCode.trim().startsWith("@startuml") || !plantUmlCode.trim().endsWith("@enduml")) {
-            return "PlantUML code must start with @startuml and end with @enduml";
-        }
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
-            SourceStringReader reader = new SourceStringReader(plantUmlCode);
-            reader.generateImage(os, new FileFormatOption(FileFormat.PNG));
-            return null;
-        } catch (IOException e) {
-             return "Error processing diagram: " + e.getMessage();
-        } catch (Exception e) {
-            return "PlantUML Syntax Error: " + e.getMessage();
-        }
+        return checkSyntax(plantUmlCode).errorMessage();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,66 @@
+// Reads a Server-Sent Events response from a POST request. EventSource only
+// supports GET, so the stream is parsed by hand from fetch's body reader.
+// handlers: { token(event), render(event), result(event) }
+async function streamDiagram(url, payload, csrfHeader, csrfToken, handlers) {
+  const response = await fetch(url, {
+    method: "POST",
+    headers: {
+      "Content-Type": "application/json",
+      Accept: "text/event-stream",
+      [csrfHeader]: csrfToken,
+    },
+    body: JSON.stringify(payload),
+  });
+  if (!response.ok) {
+    throw new Error(`HTTP error! status: ${response.status}`);
+  }
+
+  const reader = response.body.getReader();
+  const decoder = new TextDecoder();
+  let buffer = "";
+
+  const dispatch = (rawEvent) => {
+    let name = "message";
+    const data = [];
+    rawEvent.split("\n").forEach((line) => {
+      if (line.startsWith("event:")) {
+        name = line.substring(6).trim();
+      } else if (line.startsWith("data:")) {
+        data.push(line.substring(5));
+      }
+    });
+    if (data.length > 0 && handlers[name]) {
+      handlers[name](JSON.parse(data.join("\n")));
+    }
+  };
+
+  while (true) {
+    const { done, value } = await reader.read();
+    if (done) {
+      break;
+    }
+    buffer += decoder.decode(value, { stream: true }).replace(/\r\n/g, "\n");
+    let separator;
+    while ((separator = buffer.indexOf("\n\n")) >= 0) {
+      dispatch(buffer.substring(0, separator));
+      buffer = buffer.substring(separator + 2);
+    }
+  }
+  if (buffer.trim()) {
+    dispatch(buffer);
+  }
+}
+
+// Shows a rendered diagram by URL. The SVG is served by its own endpoint
+// rather than inlined into HTML or JSON, so it loads in parallel.
+function showDiagramImage(container, url) {
+  const img = document.createElement("img");
+  img.className = "img-fluid";
+  img.alt = "Diagram preview";
+  img.onerror = () => {
+    container.innerHTML =
+      '<p class="text-center text-danger">Could not load the diagram preview.</p>';
+  };
+  img.src = url;
+  container.replaceChildren(img);
+}
@@ -0,0 +1,183 @@
+package com.example.diagramr.benchmark;
+
+import com.example.diagramr.util.PlantUmlSourceCodec;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Storage saved and encode/decode throughput of {@link PlantUmlSourceCodec}
+ * on a synthetic corpus shaped like saved diagrams: sequence, class,
+ * activity, component and state diagrams from a few lines to a few hundred.
+ *
+ * Run with {@code ./gradlew benchmark}; it is excluded from {@code test}.
+ */
+@Tag("benchmark")
+class SourceCompressionBenchmark {
+
+    private static final int CORPUS_SIZE = Integer.getInteger("benchmark.corpus-size", 5000);
+    private static final int ROUNDS = Integer.getInteger("benchmark.rounds", 5);
+
+    private static final String[] NAMES = {
+            "User", "Admin", "Customer", "Order", "Invoice", "Payment", "Product", "Cart", "Shipment",
+            "Account", "Session", "Gateway", "Inventory", "Warehouse", "Notification", "Report"
+    };
+
+    @Test
+    void compressionRatioAndThroughput() {
+        List<String> corpus = corpus(new Random(42));
+        long rawBytes = corpus.stream().mapToLong(s -> s.getBytes(StandardCharsets.UTF_8).length).sum();
+
+        List<byte[]> plain = new ArrayList<>(corpus.size());
+        List<byte[]> compressed = new ArrayList<>(corpus.size());
+        for (String source : corpus) {
+            plain.add(PlantUmlSourceCodec.encode(source, false));
+            compressed.add(PlantUmlSourceCodec.encode(source, true));
+        }
+        for (int i = 0; i < corpus.size(); i++) {
+            assertEquals(corpus.get(i), PlantUmlSourceCodec.decode(compressed.get(i)));
+            assertEquals(corpus.get(i), PlantUmlSourceCodec.decode(plain.get(i)));
+        }
+
+        long storedPlain = plain.stream().mapToLong(b -> b.length).sum();
+        long storedCompressed = compressed.stream().mapToLong(b -> b.length).sum();
+        long compressedRows = compressed.stream()
+                .filter(b -> PlantUmlSourceCodec.format(b) == PlantUmlSourceCodec.FORMAT_DEFLATE_V1)
+                .count();
+
+        double writeRaw = throughput(rawBytes, () -> corpus.forEach(s -> PlantUmlSourceCodec.encode(s, false)));
+        double writeDeflate = throughput(rawBytes, () -> corpus.forEach(s -> PlantUmlSourceCodec.encode(s, true)));
+        double readRaw = throughput(rawBytes, () -> plain.forEach(PlantUmlSourceCodec::decode));
+        double readDeflate = throughput(rawBytes, () -> compressed.forEach(PlantUmlSourceCodec::decode));
+
+        System.out.printf("%nSource codec: %d diagrams, %.1f KiB of UTF-8 source (avg %d bytes)%n",
+                corpus.size(), rawBytes / 1024.0, rawBytes / corpus.size());
+        System.out.printf("  raw      stored %9.1f KiB   write %8.1f MiB/s   read %8.1f MiB/s%n",
+                storedPlain / 1024.0, writeRaw, readRaw);
+        System.out.printf("  deflate  stored %9.1f KiB   write %8.1f MiB/s   read %8.1f MiB/s%n",
+                storedCompressed / 1024.0, writeDeflate, readDeflate);
+        System.out.printf("  saved %.1f%% of raw storage; %d of %d rows compressed%n",
+                100.0 * (storedPlain - storedCompressed) / storedPlain, compressedRows, corpus.size());
+    }
+
+    /**
+     * Best of several rounds after one warm-up round, in MiB of source per
+     * second.
+     */
+    private static double throughput(long bytes, Runnable round) {
+        round.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            round.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return (bytes / (1024.0 * 1024.0)) / (best / 1e9);
+    }
+
+    private static List<String> corpus(Random random) {
+        List<String> corpus = new ArrayList<>(CORPUS_SIZE);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            // Mostly small diagrams with a long tail, as produced by generate and refine
+            int size = 3 + (int) Math.min(200, Math.abs(random.nextGaussian()) * 25);
+            corpus.add(switch (i % 5) {
+                case 0 -> sequence(random, size);
+                case 1 -> classes(random, size);
+                case 2 -> activity(random, size);
+                case 3 -> components(random, size);
+                default -> states(random, size);
+            });
+        }
+        return corpus;
+    }
+
+    private static String sequence(Random random, int size) {
+        StringBuilder sb = new StringBuilder("@startuml\nskinparam sequenceMessageAlign center\nautonumber\n");
+        sb.append("actor ").append(name(random)).append('\n');
+        for (int i = 0; i < Math.min(size / 3 + 2, 8); i++) {
+            sb.append("participant \"").append(name(random)).append(" Service\" as P").append(i).append('\n');
+        }
+        for (int i = 0; i < size; i++) {
+            int from = random.nextInt(4);
+            int to = random.nextInt(4);
+            sb.append('P').append(from).append(random.nextBoolean() ? " -> P" : " --> P").append(to)
+                    .append(": ").append(random.nextBoolean() ? "request " : "return ")
+                    .append(name(random).toLowerCase()).append('\n');
+            if (i % 7 == 6) {
+                sb.append("alt success\n  P").append(to).append(" --> P").append(from).append(": ok\n")
+                        .append("else failure\n  P").append(to).append(" --> P").append(from)
+                        .append(": error\nend\n");
+            }
+        }
+        return sb.append("@enduml\n").toString();
+    }
+
+    private static String classes(Random random, int size) {
+        StringBuilder sb = new StringBuilder("@startuml\nskinparam classAttributeIconSize 0\nhide empty members\n");
+        for (int c = 0; c < size / 4 + 1; c++) {
+            sb.append("class ").append(name(random)).append(c).append(" {\n");
+            sb.append("  -id: Long\n  -name: String\n");
+            for (int f = 0; f < random.nextInt(4); f++) {
+                sb.append("  -").append(name(random).toLowerCase()).append(": ").append(name(random)).append('\n');
+            }
+            sb.append("  +get").append(name(random)).append("(): ").append(name(random)).append('\n');
+            sb.append("}\n");
+        }
+        for (int r = 0; r < size / 4; r++) {
+            sb.append(name(random)).append(r).append(random.nextBoolean() ? " \"1\" *-- \"many\" " : " <|-- ")
+                    .append(name(random)).append(r + 1).append('\n');
+        }
+        return sb.append("@enduml\n").toString();
+    }
+
+    private static String activity(Random random, int size) {
+        StringBuilder sb = new StringBuilder("@startuml\nstart\n");
+        for (int i = 0; i < size; i++) {
+            if (i % 5 == 4) {
+                sb.append("if (").append(name(random)).append(" valid?) then (yes)\n  :Process ")
+                        .append(name(random)).append(";\nelse (no)\n  :Reject ").append(name(random))
+                        .append(";\nendif\n");
+            } else {
+                sb.append(":Load ").append(name(random)).append(" details;\n");
+            }
+        }
+        return sb.append("stop\n@enduml\n").toString();
+    }
+
+    private static String components(Random random, int size) {
+        StringBuilder sb = new StringBuilder("@startuml\nskinparam linetype ortho\n");
+        sb.append("package \"").append(name(random)).append(" System\" {\n");
+        for (int i = 0; i < size / 2 + 2; i++) {
+            sb.append("  component [").append(name(random)).append(" Component ").append(i).append("] as C")
+                    .append(i).append('\n');
+        }
+        sb.append("}\ndatabase \"").append(name(random)).append(" DB\" as DB\n");
+        for (int i = 0; i < size / 2 + 1; i++) {
+            sb.append('C').append(i).append(" --> ").append(random.nextBoolean() ? "DB" : "C" + (i + 1))
+                    .append(" : uses\n");
+        }
+        return sb.append("@enduml\n").toString();
+    }
+
+    private static String states(Random random, int size) {
+        StringBuilder sb = new StringBuilder("@startuml\n[*] --> S0\n");
+        for (int i = 0; i < size; i++) {
+            sb.append('S').append(i).append(" --> S").append(i + 1).append(" : ")
+                    .append(name(random).toLowerCase()).append('\n');
+            if (i % 6 == 5) {
+                sb.append("note right of S").append(i).append(" : waits for ").append(name(random)).append('\n');
+            }
+        }
+        return sb.append('S').append(size).append(" --> [*]\n@enduml\n").toString();
+    }
+
+    private static String name(Random random) {
+        return NAMES[random.nextInt(NAMES.length)];
+    }
+}
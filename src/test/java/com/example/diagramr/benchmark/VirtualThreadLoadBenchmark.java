@@ -0,0 +1,151 @@
+package com.example.diagramr.benchmark;
+
+import com.example.diagramr.service.llm.GroqLlmService;
+import com.example.diagramr.service.llm.PromptTemplateRegistry;
+import com.example.diagramr.service.render.PlantUmlRenderer;
+import com.example.diagramr.service.render.PlantUmlSyntaxChecker;
+import com.example.diagramr.service.render.RenderCache;
+import com.example.diagramr.service.render.RenderExecutor;
+import com.example.diagramr.service.render.RenderResult;
+import com.example.diagramr.service.render.SvgMinifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.sourceforge.plantuml.FileFormat;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the generate path (blocking LLM call, then SVG render) on a
+ * Tomcat-sized platform pool against one virtual thread per request. The
+ * ChatModel is stubbed with a fixed latency, so the numbers show how many
+ * concurrent generate requests a node can hold rather than LLM speed.
+ *
+ * Run with {@code ./gradlew benchmark}; it is excluded from {@code test}.
+ */
+@Tag("benchmark")
+class VirtualThreadLoadBenchmark {
+
+    private static final int REQUESTS = Integer.getInteger("benchmark.requests", 2000);
+    private static final int PLATFORM_THREADS = Integer.getInteger("benchmark.platform-threads", 200);
+    private static final Duration LLM_LATENCY = Duration.ofMillis(Long.getLong("benchmark.llm-latency-ms", 500));
+
+    private static final String STUB_DIAGRAM = """
+            @startuml
+            actor User
+            participant Diagramr
+            User -> Diagramr: describe diagram
+            Diagramr --> User: PlantUML
+            @enduml
+            """;
+
+    @Test
+    void platformVersusVirtualThreads() throws Exception {
+        Result platform = run("platform", Executors.newFixedThreadPool(PLATFORM_THREADS));
+        Result virtual = run("virtual", Executors.newVirtualThreadPerTaskExecutor());
+
+        System.out.printf("%nGenerate load: %d requests, stubbed LLM latency %d ms, %d platform threads%n",
+                REQUESTS, LLM_LATENCY.toMillis(), PLATFORM_THREADS);
+        System.out.printf("%-10s %10s %12s %10s %10s%n", "mode", "wall ms", "req/s", "p50 ms", "p99 ms");
+        platform.print();
+        virtual.print();
+
+        assertEquals(REQUESTS, platform.succeeded());
+        assertEquals(REQUESTS, virtual.succeeded());
+    }
+
+    private static Result run(String mode, ExecutorService requestExecutor) throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RenderExecutor renderExecutor = new RenderExecutor(0, REQUESTS, Duration.ofSeconds(60),
+                Duration.ofSeconds(5), meterRegistry);
+        PlantUmlRenderer renderer = new PlantUmlRenderer(new RenderCache(64L * 1024 * 1024, meterRegistry),
+                renderExecutor, new PlantUmlSyntaxChecker(renderExecutor, meterRegistry),
+                new SvgMinifier(true, 2, meterRegistry), 1024 * 1024);
+        GroqLlmService llmService = new GroqLlmService(new SleepingChatModel(LLM_LATENCY),
+                new PromptTemplateRegistry(4000), meterRegistry);
+        AtomicInteger sequence = new AtomicInteger();
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Boolean>> futures = new ArrayList<>(REQUESTS);
+        long start = System.nanoTime();
+        try (requestExecutor) {
+            for (int i = 0; i < REQUESTS; i++) {
+                futures.add(requestExecutor.submit(() -> {
+                    long requestStart = System.nanoTime();
+                    String code = llmService.generatePlantUml("a sequence diagram of a user asking for a diagram")
+                            .replace("@enduml", "note over User: request " + sequence.incrementAndGet() + "\n@enduml");
+                    RenderResult result = renderer.render(code, FileFormat.SVG);
+                    latencies.add(System.nanoTime() - requestStart);
+                    return result.isValid();
+                }));
+            }
+        }
+        long wallNanos = System.nanoTime() - start;
+        renderExecutor.destroy();
+
+        int succeeded = 0;
+        for (Future<Boolean> future : futures) {
+            if (future.get()) {
+                succeeded++;
+            }
+        }
+        return new Result(mode, wallNanos, succeeded, latencies);
+    }
+
+    private record Result(String mode, long wallNanos, int succeeded, List<Long> latencies) {
+
+        void print() {
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            double wallMillis = wallNanos / 1_000_000.0;
+            System.out.printf("%-10s %10.0f %12.1f %10.0f %10.0f%n", mode, wallMillis,
+                    succeeded / (wallMillis / 1000.0), percentile(sorted, 0.50), percentile(sorted, 0.99));
+        }
+
+        private static double percentile(List<Long> sorted, double p) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * sorted.size()) - 1;
+            return sorted.get(Math.max(index, 0)) / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Blocks for a fixed time to stand in for a remote model call, like the
+     * blocking HTTP client would.
+     */
+    private static final class SleepingChatModel implements ChatModel {
+
+        private final Duration latency;
+
+        SleepingChatModel(Duration latency) {
+            this.latency = latency;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(STUB_DIAGRAM))));
+        }
+    }
+}
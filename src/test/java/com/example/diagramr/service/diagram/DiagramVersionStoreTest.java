@@ -0,0 +1,160 @@
+package com.example.diagramr.service.diagram;
+
+import com.example.diagramr.model.DiagramVersion;
+import com.example.diagramr.model.SourceBlob;
+import com.example.diagramr.model.VersionStorageKind;
+import com.example.diagramr.repository.DiagramVersionRepository;
+import com.example.diagramr.util.PlantUmlSourceHasher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DiagramVersionStoreTest {
+
+    private final Map<Long, DiagramVersion> rows = new LinkedHashMap<>();
+    private DiagramVersionRepository repository;
+    private SourceBlobStore sourceBlobStore;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(DiagramVersionRepository.class);
+        when(repository.findById(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(rows.get(invocation.<Long>getArgument(0))));
+        when(repository.findByBaseVersionId(anyLong())).thenAnswer(invocation -> rows.values().stream()
+                .filter(version -> invocation.getArgument(0).equals(version.getBaseVersionId()))
+                .toList());
+        when(repository.save(any(DiagramVersion.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        sourceBlobStore = mock(SourceBlobStore.class);
+        when(sourceBlobStore.acquire(anyString())).thenAnswer(invocation -> {
+            String code = invocation.getArgument(0);
+            return new SourceBlob(PlantUmlSourceHasher.hash(code), code, code.length(), 1, LocalDateTime.now());
+        });
+    }
+
+    @Test
+    void deltaChainRoundTrips() {
+        DiagramVersionStore store = store(10);
+        DiagramVersion v1 = save(store, 1L, source(0), null);
+        DiagramVersion v2 = save(store, 2L, source(1), v1);
+        DiagramVersion v3 = save(store, 3L, source(2), v2);
+
+        assertEquals(VersionStorageKind.SNAPSHOT, v1.getStorageKind());
+        assertEquals(VersionStorageKind.DELTA, v2.getStorageKind());
+        assertEquals(VersionStorageKind.DELTA, v3.getStorageKind());
+        assertEquals(2, v3.getChainDepth());
+        assertStored(source(1), 2L);
+        assertStored(source(2), 3L);
+    }
+
+    @Test
+    void snapshotIntervalEndsTheChain() {
+        DiagramVersionStore store = store(3);
+        DiagramVersion v1 = save(store, 1L, source(0), null);
+        DiagramVersion v2 = save(store, 2L, source(1), v1);
+        DiagramVersion v3 = save(store, 3L, source(2), v2);
+        DiagramVersion v4 = save(store, 4L, source(3), v3);
+
+        assertEquals(VersionStorageKind.DELTA, v3.getStorageKind());
+        assertEquals(VersionStorageKind.SNAPSHOT, v4.getStorageKind());
+        assertStored(source(3), 4L);
+    }
+
+    @Test
+    void unrelatedSourceIsStoredAsSnapshot() {
+        DiagramVersionStore store = store(10);
+        DiagramVersion v1 = save(store, 1L, source(0), null);
+        DiagramVersion v2 = save(store, 2L, "@startuml\nA -> B\n@enduml", v1);
+
+        assertEquals(VersionStorageKind.SNAPSHOT, v2.getStorageKind());
+        assertNull(v2.getDelta());
+    }
+
+    @Test
+    void rebaseAfterDeletingADelta() {
+        DiagramVersionStore store = store(10);
+        DiagramVersion v1 = save(store, 1L, source(0), null);
+        DiagramVersion v2 = save(store, 2L, source(1), v1);
+        DiagramVersion v3 = save(store, 3L, source(2), v2);
+        DiagramVersion v4 = save(store, 4L, source(3), v2);
+
+        store.rebaseDependents(v2);
+        rows.remove(2L);
+
+        assertEquals(1L, v3.getBaseVersionId());
+        assertEquals(1L, v4.getBaseVersionId());
+        assertEquals(1, v3.getChainDepth());
+        assertStored(source(0), 1L);
+        assertStored(source(2), 3L);
+        assertStored(source(3), 4L);
+    }
+
+    @Test
+    void rebaseAfterDeletingASnapshot() {
+        DiagramVersionStore store = store(10);
+        DiagramVersion v1 = save(store, 1L, source(0), null);
+        DiagramVersion v2 = save(store, 2L, source(1), v1);
+        DiagramVersion v3 = save(store, 3L, source(2), v2);
+
+        store.rebaseDependents(v1);
+        rows.remove(1L);
+
+        assertEquals(VersionStorageKind.SNAPSHOT, v2.getStorageKind());
+        assertNull(v2.getBaseVersionId());
+        assertEquals(2L, v3.getBaseVersionId());
+        assertStored(source(1), 2L);
+        assertStored(source(2), 3L);
+    }
+
+    private DiagramVersionStore store(int snapshotInterval) {
+        return new DiagramVersionStore(repository, sourceBlobStore, snapshotInterval, 500, 1024 * 1024,
+                new SimpleMeterRegistry());
+    }
+
+    private DiagramVersion save(DiagramVersionStore store, Long id, String code, DiagramVersion base) {
+        DiagramVersion version = new DiagramVersion();
+        store.prepare(version, code, base);
+        version.setId(id);
+        version.setVersionNumber(id.intValue());
+        rows.put(id, version);
+        return version;
+    }
+
+    /**
+     * Reads the version back as a later request would: from the stored
+     * fields only, through a store with an empty cache.
+     */
+    private void assertStored(String expected, Long id) {
+        rows.values().forEach(version -> version.setPlantUmlCode(null));
+        assertEquals(expected, store(10).content(rows.get(id)));
+    }
+
+    /**
+     * A class diagram whose revisions each add one class, so consecutive
+     * revisions differ in a single line.
+     */
+    private static String source(int revision) {
+        StringBuilder code = new StringBuilder("@startuml\ntitle Orders\n");
+        for (String name : List.of("Customer", "Order", "OrderLine", "Product", "Invoice", "Payment")) {
+            code.append("class ").append(name).append(" {\n  -id: Long\n  -name: String\n}\n");
+        }
+        for (int i = 0; i < revision; i++) {
+            code.append("class Revision").append(i).append('\n');
+        }
+        return code.append("@enduml").toString();
+    }
+}
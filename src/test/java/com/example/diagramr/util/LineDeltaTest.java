@@ -0,0 +1,94 @@
+package com.example.diagramr.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LineDeltaTest {
+
+    private static final String DIAGRAM = """
+            @startuml
+            Alice -> Bob: request
+            Bob --> Alice: response
+            @enduml""";
+
+    @Test
+    void emptyTexts() {
+        assertRoundTrip("", "");
+        assertRoundTrip("", DIAGRAM);
+        assertRoundTrip(DIAGRAM, "");
+    }
+
+    @Test
+    void identicalTextIsASingleCopy() {
+        assertEquals("=4\n", assertRoundTrip(DIAGRAM, DIAGRAM));
+    }
+
+    @Test
+    void changedLine() {
+        String target = DIAGRAM.replace("request", "login");
+        assertEquals("=1\n-1\n+1\nAlice -> Bob: login\n=2\n", assertRoundTrip(DIAGRAM, target));
+    }
+
+    @Test
+    void insertedAndRemovedLines() {
+        assertRoundTrip(DIAGRAM, DIAGRAM.replace("@startuml\n", "@startuml\nactor Alice\nparticipant Bob\n"));
+        assertRoundTrip(DIAGRAM, DIAGRAM.replace("Bob --> Alice: response\n", ""));
+    }
+
+    @Test
+    void fullReplace() {
+        assertRoundTrip(DIAGRAM, "@startmindmap\n* root\n** child\n@endmindmap");
+    }
+
+    @Test
+    void trailingNewline() {
+        assertRoundTrip(DIAGRAM, DIAGRAM + "\n");
+        assertRoundTrip(DIAGRAM + "\n", DIAGRAM);
+        assertRoundTrip(DIAGRAM + "\n\n", DIAGRAM + "\n");
+    }
+
+    @Test
+    void emptyInsertedLines() {
+        assertRoundTrip(DIAGRAM, DIAGRAM.replace("\n", "\n\n"));
+    }
+
+    @Test
+    void carriageReturnsAreKept() {
+        String crlf = DIAGRAM.replace("\n", "\r\n");
+        assertRoundTrip(crlf, crlf.replace("request", "login"));
+        assertRoundTrip(DIAGRAM, crlf);
+    }
+
+    @Test
+    void normalizedCrlfInput() {
+        String base = PlantUmlSourceHasher.normalize(DIAGRAM.replace("\n", "\r\n") + "\r\n");
+        String target = PlantUmlSourceHasher.normalize(DIAGRAM.replace("request", "login").replace("\n", "\r\n"));
+        assertEquals("=1\n-1\n+1\nAlice -> Bob: login\n=2\n", assertRoundTrip(base, target));
+    }
+
+    @Test
+    void nullBaseInsertsEverything() {
+        assertEquals(DIAGRAM, LineDelta.apply(null, LineDelta.diff(null, DIAGRAM, 100)));
+    }
+
+    @Test
+    void tooManyEditsFallsBackToNull() {
+        assertNull(LineDelta.diff(DIAGRAM, "@startmindmap\n* root\n@endmindmap", 3));
+    }
+
+    @Test
+    void corruptDeltaIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> LineDelta.apply(DIAGRAM, "?1\n"));
+    }
+
+    private static String assertRoundTrip(String base, String target) {
+        String delta = LineDelta.diff(base, target, 100);
+        assertNotNull(delta);
+        assertEquals(target, LineDelta.apply(base, delta));
+        return delta;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.diagramr.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlantUmlSourceCodecTest {
+
+    private static final String DIAGRAM = """
+            @startuml
+            skinparam shadowing false
+            class Customer {
+              -id: Long
+              -name: String
+            }
+            class Order {
+              -id: Long
+              +getTotal(): Integer
+            }
+            Customer "1" -- "many" Order
+            note right of Order: Prices in EUR, \u00c4\u00d6\u00dc \u20ac
+            @enduml""";
+
+    @Test
+    void rawRoundTrip() {
+        byte[] stored = PlantUmlSourceCodec.encode(DIAGRAM, false);
+
+        assertEquals(PlantUmlSourceCodec.FORMAT_RAW, PlantUmlSourceCodec.format(stored));
+        assertEquals(DIAGRAM.getBytes(StandardCharsets.UTF_8).length + 1, stored.length);
+        assertEquals(DIAGRAM, PlantUmlSourceCodec.decode(stored));
+    }
+
+    @Test
+    void deflateRoundTrip() {
+        byte[] stored = PlantUmlSourceCodec.encode(DIAGRAM, true);
+
+        assertEquals(PlantUmlSourceCodec.FORMAT_DEFLATE_V1, PlantUmlSourceCodec.format(stored));
+        assertTrue(stored.length < DIAGRAM.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(DIAGRAM, PlantUmlSourceCodec.decode(stored));
+    }
+
+    @Test
+    void shortSourceStaysRawWhenCompressing() {
+        byte[] stored = PlantUmlSourceCodec.encode("@startuml\nA -> B\n@enduml", true);
+
+        assertEquals(PlantUmlSourceCodec.FORMAT_RAW, PlantUmlSourceCodec.format(stored));
+        assertEquals("@startuml\nA -> B\n@enduml", PlantUmlSourceCodec.decode(stored));
+    }
+
+    @Test
+    void legacyTextBytesAreReadAsUtf8() {
+        byte[] legacy = DIAGRAM.getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(DIAGRAM, PlantUmlSourceCodec.decode(legacy));
+        assertEquals(" leading space", PlantUmlSourceCodec.decode(" leading space".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void emptyInput() {
+        assertArrayEquals(new byte[] { PlantUmlSourceCodec.FORMAT_RAW }, PlantUmlSourceCodec.encode("", false));
+        assertArrayEquals(new byte[] { PlantUmlSourceCodec.FORMAT_RAW }, PlantUmlSourceCodec.encode("", true));
+        assertEquals("", PlantUmlSourceCodec.decode(PlantUmlSourceCodec.encode("", false)));
+        assertEquals("", PlantUmlSourceCodec.decode(new byte[0]));
+        assertEquals(PlantUmlSourceCodec.FORMAT_RAW, PlantUmlSourceCodec.format(new byte[0]));
+    }
+
+    @Test
+    void nullInput() {
+        assertNull(PlantUmlSourceCodec.encode(null, true));
+        assertNull(PlantUmlSourceCodec.decode(null));
+    }
+
+    @Test
+    void truncatedDeflateIsRejected() {
+        byte[] stored = PlantUmlSourceCodec.encode(DIAGRAM, true);
+        byte[] truncated = Arrays.copyOf(stored, stored.length / 2);
+
+        assertThrows(IllegalStateException.class, () -> PlantUmlSourceCodec.decode(truncated));
+    }
+}